@@ -0,0 +1,263 @@
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Tags many sentences in parallel over a CompiledModel.
+ * Input is cut into chunks that are decoded on a fixed worker pool, each worker with its own DecoderSession;
+ * results are collected chunk by chunk in submission order, so output always matches input order
+ */
+public class BatchTagger {
+    private static final int CHUNK_SIZE = 256;     //sentences per task
+
+    private final CompiledModel model;
+    private final int workers;
+    private final ThreadLocal<DecoderSession> sessions;
+    private volatile int beamWidth = 0;
+    private volatile double beamThreshold = Double.POSITIVE_INFINITY;
+    private volatile boolean candidatePruning = false;
+    private volatile boolean denseLayers = false;
+
+    public BatchTagger(CompiledModel model, int workers) {
+        if (workers < 1) throw new IllegalArgumentException("workers must be at least 1, got " + workers);
+        this.model = model;
+        this.workers = workers;
+        this.sessions = ThreadLocal.withInitial(() -> new DecoderSession(model));
+    }
+
+    /**
+     * Uses one worker per available core
+     */
+    public BatchTagger(CompiledModel model) {
+        this(model, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Decodes with beam pruning instead of exactly, see DecoderSession.setBeamWidth and setBeamThreshold
+     * @param width - max live tags per layer, 0 for no limit
+     * @param threshold - max log-score distance below the best tag of a layer, POSITIVE_INFINITY for no limit
+     */
+    public void setBeam(int width, double threshold) {
+        if (width < 0) throw new IllegalArgumentException("beam width must not be negative, got " + width);
+        if (!(threshold >= 0)) throw new IllegalArgumentException("beam threshold must be >= 0, got " + threshold);
+        beamWidth = width;
+        beamThreshold = threshold;
+    }
+
+    /**
+     * Restricts words to the tags seen with them, see DecoderSession.setCandidatePruning
+     */
+    public void setCandidatePruning(boolean candidatePruning) {
+        this.candidatePruning = candidatePruning;
+    }
+
+    /**
+     * Computes exact layers as dense max-plus row updates, see DecoderSession.setDenseLayers
+     */
+    public void setDenseLayers(boolean denseLayers) {
+        this.denseLayers = denseLayers;
+    }
+
+    /**
+     * Tags every line of the given list
+     * @return - one list of tags per line, in input order
+     */
+    public List<List<String>> tagLines(List<String> lines) {
+        return tagLines(lines.iterator());
+    }
+
+    /**
+     * Tags every line produced by the iterator; at most two chunks per worker are read ahead of the results
+     * @return - one list of tags per line, in input order
+     */
+    public List<List<String>> tagLines(Iterator<String> lines) {
+        List<List<String>> results = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            Deque<Future<List<List<String>>>> pending = new ArrayDeque<>();
+            while (lines.hasNext()) {
+                List<String> chunk = new ArrayList<>(CHUNK_SIZE);
+                while (lines.hasNext() && chunk.size() < CHUNK_SIZE) {
+                    chunk.add(lines.next());
+                }
+                pending.add(pool.submit(() -> tagChunk(chunk)));
+                if (pending.size() >= workers * 2) {
+                    results.addAll(await(pending.poll()));
+                }
+            }
+            while (!pending.isEmpty()) {
+                results.addAll(await(pending.poll()));
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * Tags every line of the given sentences file
+     * @return - one list of tags per line, in input order; empty if the file cannot be read
+     */
+    public List<List<String>> tagFile(String sentencesFileName) {
+        BufferedReader sentencesInput;
+        try {
+            sentencesInput = new BufferedReader(new FileReader(sentencesFileName));
+        }
+        catch (FileNotFoundException e) {
+            System.err.println("Cannot open file. \n" + e.getMessage());
+            return new ArrayList<>();
+        }
+        try {
+            return tagLines(sentencesInput.lines().iterator());
+        }
+        catch (UncheckedIOException e) {
+            System.err.println("IO error while reading.\n" + e.getMessage());
+            return new ArrayList<>();
+        }
+        finally {
+            try {
+                sentencesInput.close();
+            }
+            catch (IOException e) {
+                System.err.println("Cannot close file.\n" + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Tests the model on the specified files in parallel, counting the same way as POSTagger.testModel
+     * @return - list where item at idx0 is the number of correct tags, idx1 is number wrong
+     */
+    public List<Integer> testModel(String tagsFileName, String sentencesFileName) {
+        BufferedReader tagsInput;
+        BufferedReader sentencesInput;
+        int correct = 0;
+        int wrong = 0;
+
+        //create readers
+        try {
+            tagsInput = new BufferedReader(new FileReader(tagsFileName));
+            sentencesInput = new BufferedReader(new FileReader(sentencesFileName));
+        }
+        catch (FileNotFoundException e) {
+            System.err.println("Cannot open file. \n" + e.getMessage());
+            return new ArrayList<Integer>();
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        //read paired lines in chunks and score each chunk on the pool
+        try {
+            Deque<Future<int[]>> pending = new ArrayDeque<>();
+            String tagLine;
+            String sentLine = null;
+            List<String> tagChunk = new ArrayList<>(CHUNK_SIZE);
+            List<String> sentChunk = new ArrayList<>(CHUNK_SIZE);
+            while (true) {
+                boolean more = (tagLine = tagsInput.readLine()) != null && (sentLine = sentencesInput.readLine()) != null;
+                if (more) {
+                    tagChunk.add(tagLine);
+                    sentChunk.add(sentLine);
+                }
+                if (tagChunk.size() == CHUNK_SIZE || (!more && !tagChunk.isEmpty())) {
+                    List<String> chunkTags = tagChunk;
+                    List<String> chunkSents = sentChunk;
+                    pending.add(pool.submit(() -> scoreChunk(chunkTags, chunkSents)));
+                    tagChunk = new ArrayList<>(CHUNK_SIZE);
+                    sentChunk = new ArrayList<>(CHUNK_SIZE);
+                }
+                while (!pending.isEmpty() && (pending.size() >= workers * 2 || !more)) {
+                    int[] counts = await(pending.poll());
+                    correct += counts[0];
+                    wrong += counts[1];
+                }
+                if (!more) break;
+            }
+        }
+        catch (IOException e) {
+            System.err.println("IO error while reading.\n" + e.getMessage());
+        }
+        //close files
+        finally {
+            pool.shutdownNow();
+            try {
+                tagsInput.close();
+                sentencesInput.close();
+            }
+            catch (IOException e) {
+                System.err.println("Cannot close file.\n" + e.getMessage());
+            }
+        }
+        List<Integer> results = new ArrayList<>();
+        results.add(0, correct);
+        results.add(1, wrong);
+        return results;
+    }
+
+    private List<List<String>> tagChunk(List<String> lines) {
+        DecoderSession session = session();
+        List<List<String>> tagged = new ArrayList<>(lines.size());
+        for (String lineString: lines) {
+            String[] line = Tokenizer.lowerTokens(lineString);
+            String[] tags = new String[line.length];
+            session.decode(line, line.length, tags);
+            tagged.add(Arrays.asList(tags));
+        }
+        return tagged;
+    }
+
+    /**
+     * @return - {correct, wrong} for one chunk of paired tag and sentence lines
+     */
+    private int[] scoreChunk(List<String> tagLines, List<String> sentLines) {
+        DecoderSession session = session();
+        int[] counts = new int[2];
+        int[] viterbiTags = new int[0];
+        for (int s = 0; s < tagLines.size(); s++) {
+            String[] tags = Tokenizer.tokens(tagLines.get(s));
+            String[] line = Tokenizer.lowerTokens(sentLines.get(s));
+            //same rule as POSTagger.testModel: a line pair whose counts differ is not scored
+            if (line.length != tags.length) continue;
+            if (viterbiTags.length < line.length) viterbiTags = new int[line.length * 2];
+            session.decode(line, line.length, viterbiTags);
+            for (int i = 0; i < line.length; i++) {
+                if (viterbiTags[i] != -1 && model.tag(viterbiTags[i]).equals(tags[i])) {
+                    counts[0]++;
+                }
+                else {
+                    counts[1]++;
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return - this worker's session, set to the current beam and candidate pruning
+     */
+    private DecoderSession session() {
+        DecoderSession session = sessions.get();
+        session.setBeamWidth(beamWidth);
+        session.setBeamThreshold(beamThreshold);
+        session.setCandidatePruning(candidatePruning);
+        session.setDenseLayers(denseLayers);
+        return session;
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while tagging", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
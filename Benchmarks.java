@@ -0,0 +1,198 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks for the training and decoding hot paths: train() on a simple and a Brown-sized corpus, viterbi()
+ * latency by sentence length, batch throughput, exact against beam and k-best decoding, and bytes allocated per
+ * operation.
+ * Uses the inputs/texts corpora when they are present and synthetic ones otherwise.
+ * Every benchmark runs warm-up iterations first so the JIT has compiled the code being measured.
+ * Run with: java Benchmarks [iterations]
+ */
+public class Benchmarks {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int[] SENTENCE_LENGTHS = {5, 10, 20, 40};
+    static final int BEAM_WIDTH = 8;    //live tags per layer of the beam rows
+    static final int K_BEST = 5;        //sequences per sentence of the k-best rows
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private interface Body {
+        void run() throws Exception;
+    }
+
+    private interface Decoder {
+        void decode(String[] words, int length, int[] tagIds);
+    }
+
+    /**
+     * Prints the accuracy of the decoder on pre-tokenized test sentences, counted like POSTagger.testModel
+     */
+    private static void accuracy(String name, CompiledModel model, String[][] tags, String[][] words, Decoder decoder) {
+        long correct = 0;
+        long total = 0;
+        int[] tagIds = new int[64];
+        for (int s = 0; s < words.length; s++) {
+            if (tagIds.length < words[s].length) tagIds = new int[words[s].length];
+            decoder.decode(words[s], words[s].length, tagIds);
+            for (int i = 0; i < words[s].length; i++) {
+                if (tagIds[i] != -1 && model.tag(tagIds[i]).equals(tags[s][i])) correct++;
+                total++;
+            }
+        }
+        System.out.printf("%-40s %12.4f accuracy (%d of %d tags)%n", name, (double) correct / total, correct, total);
+    }
+
+    /**
+     * Decodes with the K-best decoder and writes its top sequence as tag ids; -1 everywhere if none was found
+     */
+    static void decodeTop(KBestDecoder kBest, CompiledModel model, String[] words, int length, int[] tagIds) {
+        List<KBestDecoder.ScoredTags> sequences = kBest.decode(words, length);
+        for (int i = 0; i < length; i++) {
+            tagIds[i] = sequences.isEmpty() ? -1 : model.tagId(sequences.get(0).getTags().get(i));
+        }
+    }
+
+    /**
+     * Runs body for the warm-up and then the measured iterations and prints time, throughput and allocation
+     * @param opsPerIteration - operations one run of body performs, e.g. sentences decoded
+     */
+    private static void bench(String name, int iterations, long opsPerIteration, Body body) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            body.run();
+        }
+        long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            body.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        double ops = (double) opsPerIteration * iterations;
+        System.out.printf("%-40s %12.3f us/op %14.1f ops/s %14.1f B/op%n",
+                name, elapsed / 1000.0 / ops, ops / (elapsed / 1e9), allocated / ops);
+    }
+
+    /**
+     * @return - {tagsFileName, sentencesFileName}: the real corpus if present, otherwise a generated one
+     */
+    static String[] corpus(String name, int numTags, int wordsPerTag, int sentences) throws IOException {
+        String tags = "inputs/texts/" + name + "-tags.txt";
+        String sents = "inputs/texts/" + name + "-sentences.txt";
+        if (new File(tags).exists() && new File(sents).exists()) return new String[]{tags, sents};
+
+        File dir = new File(System.getProperty("java.io.tmpdir"), "viterbi-bench");
+        dir.mkdirs();
+        tags = new File(dir, name + "-tags.txt").getPath();
+        sents = new File(dir, name + "-sentences.txt").getPath();
+        //train and test sets of the same size share a language, e.g. brown-train and brown-test
+        long language = name.substring(0, name.indexOf('-')).hashCode();
+        new SyntheticCorpus(numTags, wordsPerTag, language, name.hashCode()).write(tags, sents, sentences, 40);
+        System.out.println("(" + name + ": synthetic corpus of " + sentences + " sentences)");
+        return new String[]{tags, sents};
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        String[] simple = corpus("simple-train", 12, 40, 50);
+        String[] brown = corpus("brown-train", 40, 2000, 40000);
+        String[] brownTest = corpus("brown-test", 40, 2000, 4000);
+
+        //training
+        bench("train simple", iterations, 1, () -> new POSTagger(simple[0], simple[1]));
+        bench("train brown", iterations, 1, () -> new POSTagger(brown[0], brown[1]));
+        POSTagger shardedTagger = new POSTagger(simple[0], simple[1]);
+        bench("trainSharded brown (" + cores + " workers)", iterations, 1,
+                () -> shardedTagger.trainSharded(brown[0], brown[1], cores));
+
+        //decoding latency by sentence length
+        POSTagger tagger = new POSTagger(brown[0], brown[1]);
+        CompiledModel model = tagger.compile();
+        DecoderSession session = new DecoderSession(model);
+        DecoderSession denseSession = new DecoderSession(model);
+        denseSession.setDenseLayers(true);
+        SyntheticCorpus generator = new SyntheticCorpus(40, 2000, 1);
+        for (int length: SENTENCE_LENGTHS) {
+            List<String> lines = new ArrayList<>();
+            for (int s = 0; s < 200; s++) {
+                lines.add(generator.sentence(length)[1]);
+            }
+            List<String[]> words = new ArrayList<>();
+            for (String line: lines) {
+                words.add(Tokenizer.lowerTokens(line));
+            }
+            int[] tags = new int[length];
+            bench("viterbi length " + length, iterations, lines.size(), () -> {
+                for (String line: lines) tagger.viterbi(line);
+            });
+            bench("compiled viterbi length " + length, iterations, lines.size(), () -> {
+                for (String line: lines) model.viterbi(line);
+            });
+            bench("session decode length " + length, iterations * 10, lines.size(), () -> {
+                for (String[] sentence: words) session.decode(sentence, sentence.length, tags);
+            });
+            bench("dense session decode length " + length, iterations * 10, lines.size(), () -> {
+                for (String[] sentence: words) denseSession.decode(sentence, sentence.length, tags);
+            });
+        }
+
+        //batch throughput; allocation here only counts the submitting thread
+        List<String> testLines = Files.readAllLines(Paths.get(brownTest[1]));
+        for (int workers = 1; workers <= cores; workers *= 2) {
+            BatchTagger batch = new BatchTagger(model, workers);
+            bench("batch tagLines (" + workers + " workers)", iterations, testLines.size(),
+                    () -> batch.tagLines(testLines));
+        }
+
+        //first vs second order: accuracy, and time per token
+        List<String> testTagLines = Files.readAllLines(Paths.get(brownTest[0]));
+        String[][] testTags = new String[testLines.size()][];
+        String[][] testWords = new String[testLines.size()][];
+        long tokens = 0;
+        int longest = 0;
+        for (int s = 0; s < testWords.length; s++) {
+            testTags[s] = Tokenizer.tokens(testTagLines.get(s));
+            testWords[s] = Tokenizer.lowerTokens(testLines.get(s));
+            tokens += testWords[s].length;
+            longest = Math.max(longest, testWords[s].length);
+        }
+        TrigramDecoder trigramDecoder = new TrigramDecoder(tagger.compileTrigram());
+        Decoder[] decoders = {session::decode, trigramDecoder::decode};
+        String[] orders = {"first order", "second order"};
+        for (int d = 0; d < decoders.length; d++) {
+            Decoder decoder = decoders[d];
+            accuracy(orders[d], model, testTags, testWords, decoder);
+            int[] tagIds = new int[longest];
+            bench(orders[d] + " decode per token", iterations, tokens, () -> {
+                for (String[] sentence: testWords) decoder.decode(sentence, sentence.length, tagIds);
+            });
+        }
+
+        //exact against approximate first order decoding: accuracy next to the exact decoder's, and time per token
+        DecoderSession beamSession = new DecoderSession(model);
+        beamSession.setBeamWidth(BEAM_WIDTH);
+        KBestDecoder kBest = new KBestDecoder(model, K_BEST);
+        Decoder[] searches = {session::decode, beamSession::decode,
+                (sentence, length, tagIds) -> decodeTop(kBest, model, sentence, length, tagIds)};
+        String[] searchNames = {"exact", "beam " + BEAM_WIDTH, K_BEST + "-best (top sequence)"};
+        for (int d = 0; d < searches.length; d++) {
+            Decoder decoder = searches[d];
+            accuracy(searchNames[d], model, testTags, testWords, decoder);
+            int[] tagIds = new int[longest];
+            bench(searchNames[d] + " decode per token", iterations, tokens, () -> {
+                for (String[] sentence: testWords) decoder.decode(sentence, sentence.length, tagIds);
+            });
+        }
+        List<Integer> oracle = kBest.testModel(brownTest[0], brownTest[1]);
+        System.out.printf("%-40s %12.4f accuracy (%d of %d tags)%n", K_BEST + "-best (oracle)",
+                (double) oracle.get(0) / (oracle.get(0) + oracle.get(1)), oracle.get(0), oracle.get(0) + oracle.get(1));
+    }
+}
@@ -0,0 +1,118 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Vocabulary keyed by raw bytes: maps a slice of a byte array to a dense int id with open addressing, so a token
+ * can be looked up or interned without first decoding it into a String. Each entry's String is only built once,
+ * when word(id) is first asked for it. Not thread safe
+ */
+public class ByteVocabulary {
+    private byte[] pool = new byte[1 << 12];    //bytes of every entry, back to back
+    private int poolSize = 0;
+    private int[] offsets = new int[64];        //[id] -> start of the entry in pool, entry id ends at offsets[id+1]
+    private int[] hashes = new int[64];         //[id] -> hash of the entry
+    private String[] strings = new String[64];  //[id] -> decoded entry, null until asked for
+    private int size = 0;
+    private int[] slots = new int[128];         //open addressing table of id + 1, 0 for an empty slot
+
+    /**
+     * @return - id of the bytes buffer[offset .. offset+length-1], -1 if they are not in the vocabulary
+     */
+    public int id(byte[] buffer, int offset, int length) {
+        int hash = hash(buffer, offset, length);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (id == -1) return -1;
+            if (hashes[id] == hash && matches(id, buffer, offset, length)) return id;
+        }
+    }
+
+    /**
+     * @return - id of the bytes, adding them to the vocabulary under the next free id if they are new
+     */
+    public int add(byte[] buffer, int offset, int length) {
+        int hash = hash(buffer, offset, length);
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && matches(id, buffer, offset, length)) return id;
+        }
+
+        int id = size++;
+        if (size + 1 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+            strings = Arrays.copyOf(strings, strings.length * 2);
+        }
+        if (poolSize + length > pool.length) pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + length));
+        System.arraycopy(buffer, offset, pool, poolSize, length);
+        offsets[id] = poolSize;
+        poolSize += length;
+        offsets[id + 1] = poolSize;
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        //keep the table at most half full
+        if (size * 2 > slots.length) rehash();
+        return id;
+    }
+
+    /**
+     * @return - id of the word's UTF-8 bytes, adding it if new
+     */
+    public int add(String word) {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        return add(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @return - id here of the entry with the given id in the other vocabulary, adding it if new
+     */
+    public int add(ByteVocabulary other, int id) {
+        return add(other.pool, other.offsets[id], other.offsets[id + 1] - other.offsets[id]);
+    }
+
+    /**
+     * @return - the entry with the given id, decoded as UTF-8
+     */
+    public String word(int id) {
+        if (id < 0 || id >= size) throw new IndexOutOfBoundsException("No word with id " + id);
+        if (strings[id] == null) {
+            strings[id] = new String(pool, offsets[id], offsets[id + 1] - offsets[id], StandardCharsets.UTF_8);
+        }
+        return strings[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private boolean matches(int id, byte[] buffer, int offset, int length) {
+        int start = offsets[id];
+        return offsets[id + 1] - start == length
+                && Arrays.equals(pool, start, start + length, buffer, offset, offset + length);
+    }
+
+    private void rehash() {
+        int[] grown = new int[slots.length * 2];
+        int mask = grown.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (grown[slot] != 0) slot = (slot + 1) & mask;
+            grown[slot] = id + 1;
+        }
+        slots = grown;
+    }
+
+    /**
+     * FNV-1a, then mixed so the low bits used for the slot depend on every byte
+     */
+    private static int hash(byte[] buffer, int offset, int length) {
+        int hash = 0x811c9dc5;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ buffer[i]) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
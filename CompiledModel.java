@@ -0,0 +1,321 @@
+import java.util.*;
+
+/**
+ * Frozen, array-backed copy of a trained POSTagger model.
+ * Tags and words are interned to int ids, transitions live in a dense double[T][T] matrix and emissions are kept
+ * per word as a compact list of (tag id, log prob) pairs in an EmissionTable (heap arrays, or a mapped snapshot), so
+ * decoding runs over primitive arrays instead of nested maps.
+ * Tag ids follow the String order of the tags; decoders break ties between equal scores towards the lowest id.
+ * This tie rule deliberately differs from POSTagger.viterbi, which keeps the first of equal paths in HashMap
+ * iteration order and compares full edge sums (decoders here add a tag's observation score once, after its best
+ * incoming edge), so the two can pick different, equally scored tags for the same sentence
+ */
+public class CompiledModel {
+    public static final String START_TAG = "#";
+
+    private final String[] tags;                 //tag id -> tag
+    private final Map<String, Integer> tagIds;   //tag -> tag id
+    private final double[][] transitions;        //[prevTag][nextTag] log prob, NEGATIVE_INFINITY if never observed
+    private final boolean[] hasSuccessors;       //true if the tag has an entry in posMap
+    private final int[] predOffsets;             //CSR over incoming edges: tag t's predecessors are at [t] .. [t+1]-1
+    private final int[] predTags;                //predecessor tag of each incoming edge, ascending per tag
+    private final double[] predScores;           //transition log prob of each incoming edge
+    private final EmissionTable emissions;       //words and their (tag id, log prob) lists
+    private final int startTag;
+    private final double unseenScore;
+    private volatile UnknownWordModel unknownWords;  //scores out-of-vocabulary words; built on first use
+
+    /**
+     * Emissions on the heap: one CSR list over every word, a word -> id map and the words themselves
+     */
+    private static class HeapEmissions implements EmissionTable {
+        final String[] words;                //word id -> word
+        final Map<String, Integer> wordIds;  //word -> word id
+        final int[] offsets;                 //word w's emissions are [w] .. [w+1]-1
+        final int[] emissionTags;
+        final double[] emissionScores;
+
+        HeapEmissions(String[] words, int[] offsets, int[] emissionTags, double[] emissionScores) {
+            this.words = words;
+            this.offsets = offsets;
+            this.emissionTags = emissionTags;
+            this.emissionScores = emissionScores;
+            this.wordIds = new HashMap<>();
+            for (int w = 0; w < words.length; w++) {
+                wordIds.put(words[w], w);
+            }
+        }
+
+        public int numWords() {
+            return words.length;
+        }
+
+        public int numEmissions() {
+            return emissionTags.length;
+        }
+
+        public int wordId(String word) {
+            Integer id = wordIds.get(word);
+            return id == null ? -1 : id;
+        }
+
+        public String word(int wordId) {
+            return words[wordId];
+        }
+
+        public int emissionStart(int wordId) {
+            return offsets[wordId];
+        }
+
+        public int emissionEnd(int wordId) {
+            return offsets[wordId + 1];
+        }
+
+        public int emissionTag(int emission) {
+            return emissionTags[emission];
+        }
+
+        public double emissionScore(int emission) {
+            return emissionScores[emission];
+        }
+    }
+
+    CompiledModel(String[] tags, double[][] transitions, boolean[] hasSuccessors, EmissionTable emissions,
+                  double unseenScore) {
+        this.tags = tags;
+        this.tagIds = new HashMap<>();
+        for (int t = 0; t < tags.length; t++) {
+            tagIds.put(tags[t], t);
+        }
+        this.transitions = transitions;
+        this.hasSuccessors = hasSuccessors;
+
+        //reverse the transition matrix into per-tag predecessor lists
+        int numTags = tags.length;
+        predOffsets = new int[numTags + 1];
+        for (int prev = 0; prev < numTags; prev++) {
+            if (!hasSuccessors[prev]) continue;
+            for (int next = 0; next < numTags; next++) {
+                if (transitions[prev][next] != Double.NEGATIVE_INFINITY) predOffsets[next + 1]++;
+            }
+        }
+        for (int t = 0; t < numTags; t++) {
+            predOffsets[t + 1] += predOffsets[t];
+        }
+        predTags = new int[predOffsets[numTags]];
+        predScores = new double[predOffsets[numTags]];
+        int[] fill = Arrays.copyOf(predOffsets, numTags);
+        for (int prev = 0; prev < numTags; prev++) {
+            if (!hasSuccessors[prev]) continue;
+            for (int next = 0; next < numTags; next++) {
+                if (transitions[prev][next] == Double.NEGATIVE_INFINITY) continue;
+                predTags[fill[next]] = prev;
+                predScores[fill[next]] = transitions[prev][next];
+                fill[next]++;
+            }
+        }
+
+        this.emissions = emissions;
+        this.startTag = tagIds.get(START_TAG);
+        this.unseenScore = unseenScore;
+    }
+
+    /**
+     * Freezes the given occurrence maps into tag/word dictionaries and primitive score tables
+     * @param posMap - Map POS -> (Map POS -> log prob), as built by POSTagger.train
+     * @param posToWordMap - Map POS -> (Map observedWord -> log prob)
+     * @param unseenScore - score used for a word never observed with a tag
+     * @return - the compiled model
+     */
+    public static CompiledModel compile(Map<String, Map<String, Double>> posMap,
+                                        Map<String, Map<String, Double>> posToWordMap, double unseenScore) {
+        //intern every tag in String order, so the lowest id wins a tie exactly when POSTagger.viterbi's rule does
+        SortedSet<String> sortedTags = new TreeSet<>();
+        sortedTags.add(START_TAG);
+        for (String prev: posMap.keySet()) {
+            sortedTags.add(prev);
+            sortedTags.addAll(posMap.get(prev).keySet());
+        }
+        sortedTags.addAll(posToWordMap.keySet());
+        List<String> tagList = new ArrayList<>(sortedTags);
+        Map<String, Integer> tagIds = new HashMap<>();
+        for (int t = 0; t < tagList.size(); t++) {
+            tagIds.put(tagList.get(t), t);
+        }
+        int numTags = tagList.size();
+
+        //dense transition matrix
+        double[][] transitions = new double[numTags][numTags];
+        boolean[] hasSuccessors = new boolean[numTags];
+        for (double[] row: transitions) {
+            Arrays.fill(row, Double.NEGATIVE_INFINITY);
+        }
+        for (String prev: posMap.keySet()) {
+            int prevId = tagIds.get(prev);
+            hasSuccessors[prevId] = true;
+            for (Map.Entry<String, Double> entry: posMap.get(prev).entrySet()) {
+                transitions[prevId][tagIds.get(entry.getKey())] = entry.getValue();
+            }
+        }
+
+        //invert posToWordMap into word -> list of (tag, log prob)
+        Map<String, Integer> wordIds = new HashMap<>();
+        List<String> wordList = new ArrayList<>();
+        List<List<Integer>> tagsPerWord = new ArrayList<>();
+        List<List<Double>> scoresPerWord = new ArrayList<>();
+        for (String tag: posToWordMap.keySet()) {
+            int tagId = tagIds.get(tag);
+            for (Map.Entry<String, Double> entry: posToWordMap.get(tag).entrySet()) {
+                Integer wordId = wordIds.get(entry.getKey());
+                if (wordId == null) {
+                    wordId = wordIds.size();
+                    wordIds.put(entry.getKey(), wordId);
+                    wordList.add(entry.getKey());
+                    tagsPerWord.add(new ArrayList<Integer>());
+                    scoresPerWord.add(new ArrayList<Double>());
+                }
+                tagsPerWord.get(wordId).add(tagId);
+                scoresPerWord.get(wordId).add(entry.getValue());
+            }
+        }
+        //and pack the lists back to back
+        int[] offsets = new int[wordList.size() + 1];
+        for (int w = 0; w < wordList.size(); w++) {
+            offsets[w + 1] = offsets[w] + tagsPerWord.get(w).size();
+        }
+        int[] emissionTags = new int[offsets[wordList.size()]];
+        double[] emissionScores = new double[emissionTags.length];
+        for (int w = 0; w < wordList.size(); w++) {
+            List<Integer> wordTags = tagsPerWord.get(w);
+            for (int i = 0; i < wordTags.size(); i++) {
+                emissionTags[offsets[w] + i] = wordTags.get(i);
+                emissionScores[offsets[w] + i] = scoresPerWord.get(w).get(i);
+            }
+        }
+
+        EmissionTable emissions = new HeapEmissions(wordList.toArray(new String[0]), offsets, emissionTags,
+                emissionScores);
+        return new CompiledModel(tagList.toArray(new String[0]), transitions, hasSuccessors, emissions, unseenScore);
+    }
+
+    /**
+     * Uses Viterbi decoding over the compiled arrays; gives the same tags as POSTagger.viterbi on the same model
+     * except where paths score exactly the same: then the lowest tag id (first in String order) wins
+     * @return - List of most likely tags corresponding to the words in the provided text
+     */
+    public List<String> viterbi(String lineString) {
+        String[] line = Tokenizer.lowerTokens(lineString);
+        String[] result = new String[line.length];
+        new DecoderSession(this).decode(line, line.length, result);
+        return new ArrayList<>(Arrays.asList(result));
+    }
+
+    /**
+     * @return - number of interned tags, including the start tag
+     */
+    public int numTags() {
+        return tags.length;
+    }
+
+    /**
+     * @return - number of interned words
+     */
+    public int numWords() {
+        return emissions.numWords();
+    }
+
+    /**
+     * @return - the tag with the given id
+     */
+    public String tag(int tagId) {
+        return tags[tagId];
+    }
+
+    /**
+     * @return - the word with the given id
+     */
+    public String word(int wordId) {
+        return emissions.word(wordId);
+    }
+
+    /**
+     * @return - the id of the given tag, or -1 if the model has never seen it
+     */
+    public int tagId(String tag) {
+        Integer id = tagIds.get(tag);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return - the id of the given (lower case) word, or -1 if it is out of vocabulary
+     */
+    public int wordId(String word) {
+        return emissions.wordId(word);
+    }
+
+    public double getUnseenScore() {
+        return unseenScore;
+    }
+
+    /**
+     * @return - the model for out-of-vocabulary words, built from the whole vocabulary the first time it is asked for
+     */
+    public UnknownWordModel getUnknownWordModel() {
+        UnknownWordModel model = unknownWords;
+        if (model == null) {
+            synchronized (this) {
+                model = unknownWords;
+                if (model == null) {
+                    model = new UnknownWordModel(this);
+                    unknownWords = model;
+                }
+            }
+        }
+        return model;
+    }
+
+    //raw tables for DecoderSession; callers must not modify them
+    double[][] transitions() {
+        return transitions;
+    }
+
+    boolean[] hasSuccessors() {
+        return hasSuccessors;
+    }
+
+    int[] predOffsets() {
+        return predOffsets;
+    }
+
+    int[] predTags() {
+        return predTags;
+    }
+
+    double[] predScores() {
+        return predScores;
+    }
+
+    EmissionTable emissions() {
+        return emissions;
+    }
+
+    int emissionStart(int wordId) {
+        return emissions.emissionStart(wordId);
+    }
+
+    int emissionEnd(int wordId) {
+        return emissions.emissionEnd(wordId);
+    }
+
+    int emissionTag(int emission) {
+        return emissions.emissionTag(emission);
+    }
+
+    double emissionScore(int emission) {
+        return emissions.emissionScore(emission);
+    }
+
+    int startTag() {
+        return startTag;
+    }
+}
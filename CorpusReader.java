@@ -0,0 +1,165 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Line by line reader over a memory-mapped tags or sentences file that never builds a String per token.
+ * Each line is copied once into a reusable byte buffer, ASCII letters are lower-cased there in place if asked,
+ * and tokens (separated by runs of whitespace, as in Tokenizer) are resolved straight to ids of a ByteVocabulary.
+ * Files larger than the mapping window are mapped one window at a time, and a reader can be limited to a byte range
+ * of whole lines (see lineStarts), so several threads can each read their own part of one file. Not thread safe
+ */
+public class CorpusReader implements Closeable {
+    private static final long WINDOW = 1L << 30;    //bytes mapped at once
+
+    private final FileChannel channel;
+    private final long end;                         //file offset the reader stops at
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int position = 0;                       //in the window
+    private int lineNumber = 0;
+    private byte[] line = new byte[256];
+    private int lineLength = 0;
+    private int[] tokenStarts = new int[32];
+    private int[] tokenEnds = new int[32];
+    private int tokenCount = 0;
+
+    public CorpusReader(String fileName) throws IOException {
+        this(fileName, 0, Long.MAX_VALUE, 0);
+    }
+
+    /**
+     * Reads only the lines in bytes start .. end-1 of the file
+     * @param start - offset of the first line, 0 or just after a '\n'
+     * @param end - offset just after the last line's '\n' (or the end of the file)
+     * @param linesBefore - number of lines before start, so getLineNumber counts from the top of the file
+     */
+    public CorpusReader(String fileName, long start, long end, int linesBefore) throws IOException {
+        channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        this.end = Math.min(end, channel.size());
+        windowStart = Math.min(start, this.end);
+        lineNumber = linesBefore;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(WINDOW, this.end - windowStart));
+    }
+
+    /**
+     * Scans the file for line ends without reading any line
+     * @param linesPerRange - lines in every range but the last
+     * @return - offsets of lines 0, linesPerRange, 2*linesPerRange... followed by the file size: range r is
+     * starts[r] .. starts[r+1]-1 and begins with line r*linesPerRange
+     * @throws IOException - if the file cannot be opened or read
+     */
+    public static long[] lineStarts(String fileName, int linesPerRange) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long[] starts = new long[16];
+            int count = 0;
+            if (size > 0) starts[count++] = 0;
+            long lines = 0;
+            for (long windowStart = 0; windowStart < size; windowStart += WINDOW) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                        Math.min(WINDOW, size - windowStart));
+                for (int i = 0; i < window.limit(); i++) {
+                    if (window.get(i) != '\n') continue;
+                    long next = windowStart + i + 1;
+                    if (++lines % linesPerRange != 0 || next == size) continue;
+                    if (count + 1 == starts.length) starts = Arrays.copyOf(starts, count * 2);
+                    starts[count++] = next;
+                }
+            }
+            starts = Arrays.copyOf(starts, count + 1);
+            starts[count] = size;
+            return starts;
+        }
+    }
+
+    /**
+     * Reads the next line and splits it into tokens
+     * @param lowerCase - lower-case the ASCII letters of the line
+     * @return - false at the end of the file
+     */
+    public boolean nextLine(boolean lowerCase) throws IOException {
+        int end = findLineEnd();
+        if (end == -1) return false;
+        lineLength = end - position;
+        if (lineLength > line.length) line = new byte[Math.max(lineLength, line.length * 2)];
+        window.get(position, line, 0, lineLength);
+        position = end < window.limit() ? end + 1 : end;
+        lineNumber++;
+
+        tokenCount = 0;
+        int i = 0;
+        while (i < lineLength) {
+            while (i < lineLength && Tokenizer.isWhitespace(line[i])) i++;
+            if (i == lineLength) break;
+            if (tokenCount == tokenStarts.length) {
+                tokenStarts = Arrays.copyOf(tokenStarts, tokenCount * 2);
+                tokenEnds = Arrays.copyOf(tokenEnds, tokenCount * 2);
+            }
+            tokenStarts[tokenCount] = i;
+            while (i < lineLength && !Tokenizer.isWhitespace(line[i])) {
+                if (lowerCase) line[i] = (byte) Tokenizer.toLower(line[i]);
+                i++;
+            }
+            tokenEnds[tokenCount++] = i;
+        }
+        return true;
+    }
+
+    /**
+     * @return - number of tokens on the current line
+     */
+    public int tokenCount() {
+        return tokenCount;
+    }
+
+    /**
+     * @return - 1-based number of the current line
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return - id of the token-th token of the current line in the vocabulary, added to it if new
+     */
+    public int addToken(int token, ByteVocabulary vocabulary) {
+        return vocabulary.add(line, tokenStarts[token], tokenEnds[token] - tokenStarts[token]);
+    }
+
+    /**
+     * @return - id of the token-th token of the current line, -1 if it is not in the vocabulary
+     */
+    public int tokenId(int token, ByteVocabulary vocabulary) {
+        return vocabulary.id(line, tokenStarts[token], tokenEnds[token] - tokenStarts[token]);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @return - window index of the '\n' ending the line at position (or of the end of the file), -1 if no line is
+     * left; slides the window forward when the line runs past it
+     */
+    private int findLineEnd() throws IOException {
+        while (true) {
+            int limit = window.limit();
+            if (position >= limit && windowStart + limit >= end) return -1;
+            for (int i = position; i < limit; i++) {
+                if (window.get(i) == '\n') return i;
+            }
+            if (windowStart + limit >= end) return limit;
+            //the line runs past the window: map a new one starting at the line
+            if (position == 0) throw new IOException("Line " + (lineNumber + 1) + " is longer than " + WINDOW + " bytes");
+            windowStart += position;
+            position = 0;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(WINDOW, end - windowStart));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Two-level occurrence counts, e.g. POS -> (POS -> count) or POS -> (word -> count).
+ * Counts are kept in int cells that are updated in place, so counting does not box, and tables built on different
+ * threads can be merged before they are normalized into log probabilities
+ */
+public class CountTable {
+    private final Map<String, Map<String, int[]>> counts = new HashMap<>();
+
+    /**
+     * Copies raw (not yet normalized) occurrence maps, as POSTagger.train holds them before taking logs
+     * @param counts - Map outer -> (Map inner -> whole number count)
+     */
+    public static CountTable fromCounts(Map<String, Map<String, Double>> counts) {
+        CountTable table = new CountTable();
+        for (Map.Entry<String, Map<String, Double>> row: counts.entrySet()) {
+            for (Map.Entry<String, Double> cell: row.getValue().entrySet()) {
+                table.add(row.getKey(), cell.getKey(), (int) Math.round(cell.getValue()));
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Adds one occurrence of inner after/under outer
+     */
+    public void increment(String outer, String inner) {
+        add(outer, inner, 1);
+    }
+
+    public void add(String outer, String inner, int amount) {
+        Map<String, int[]> row = counts.get(outer);
+        if (row == null) {
+            row = new HashMap<>();
+            counts.put(outer, row);
+        }
+        int[] cell = row.get(inner);
+        if (cell == null) {
+            row.put(inner, new int[]{amount});
+        }
+        else {
+            cell[0] += amount;
+        }
+    }
+
+    /**
+     * Adds every count of other into this table
+     */
+    public void merge(CountTable other) {
+        for (Map.Entry<String, Map<String, int[]>> row: other.counts.entrySet()) {
+            for (Map.Entry<String, int[]> cell: row.getValue().entrySet()) {
+                add(row.getKey(), cell.getKey(), cell.getValue()[0]);
+            }
+        }
+    }
+
+    /**
+     * @return - the count of inner after/under outer, 0 if never seen
+     */
+    public int get(String outer, String inner) {
+        Map<String, int[]> row = counts.get(outer);
+        if (row == null) return 0;
+        int[] cell = row.get(inner);
+        return cell == null ? 0 : cell[0];
+    }
+
+    /**
+     * @return - the outer keys that have counts
+     */
+    public Set<String> rows() {
+        return counts.keySet();
+    }
+
+    /**
+     * @return - the inner keys counted under outer
+     */
+    public Set<String> columns(String outer) {
+        Map<String, int[]> row = counts.get(outer);
+        return row == null ? Collections.<String>emptySet() : row.keySet();
+    }
+
+    /**
+     * @return - sum of the counts under outer
+     */
+    public long rowTotal(String outer) {
+        Map<String, int[]> row = counts.get(outer);
+        long total = 0;
+        if (row == null) return total;
+        for (int[] cell: row.values()) {
+            total += cell[0];
+        }
+        return total;
+    }
+
+    /**
+     * @return - log((count)/(total count of the row)) for every entry of the given row, in the same form as one
+     * inner map of POSTagger.posMap
+     */
+    public Map<String, Double> rowToLogProbs(String outer) {
+        Map<String, int[]> row = counts.get(outer);
+        Map<String, Double> logProbs = new HashMap<>();
+        if (row == null) return logProbs;
+        double count = 0;
+        for (int[] cell: row.values()) {
+            count += cell[0];
+        }
+        for (Map.Entry<String, int[]> cell: row.entrySet()) {
+            logProbs.put(cell.getKey(), Math.log(cell.getValue()[0]/count));
+        }
+        return logProbs;
+    }
+
+    /**
+     * Normalizes every row into log probabilities, the same way POSTagger.train does
+     * @return - Map outer -> (Map inner -> log prob)
+     */
+    public Map<String, Map<String, Double>> toLogProbs() {
+        Map<String, Map<String, Double>> logProbs = new HashMap<>();
+        for (String outer: counts.keySet()) {
+            logProbs.put(outer, rowToLogProbs(outer));
+        }
+        return logProbs;
+    }
+}
@@ -0,0 +1,271 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Parallel k-fold cross-validation and parameter sweeps over one tagged corpus.
+ * The corpus is read and tokenized once and shared by every fold. Sentence s belongs to fold s % k; each fold's
+ * part is counted once, the training counts of fold f are the merged counts of every other part, and the log
+ * probability maps of a fold are built once and shared by every setting tried on it. Counting, map building and
+ * the (fold, setting) decoding runs are each spread over a fixed pool of worker threads
+ */
+public class CrossValidator {
+    public static final double DEFAULT_UNSEEN_SCORE = -20;  //POSTagger's UNSEEN_SCORE
+
+    private final String[][] tags;     //[sentence] -> tags
+    private final String[][] words;    //[sentence] -> lower case words
+    private final List<String> tagSet;
+    private final Map<String, Integer> tagIndex;
+    private final int workers;
+
+    /**
+     * Decoding parameters to evaluate: POSTagger's UNSEEN_SCORE and the DecoderSession pruning knobs
+     */
+    public static class Setting {
+        final double unseenScore;
+        final int beamWidth;
+        final double beamThreshold;
+        final boolean candidatePruning;
+
+        public Setting(double unseenScore) {
+            this(unseenScore, 0, Double.POSITIVE_INFINITY, false);
+        }
+
+        public Setting(double unseenScore, int beamWidth, double beamThreshold, boolean candidatePruning) {
+            this.unseenScore = unseenScore;
+            this.beamWidth = beamWidth;
+            this.beamThreshold = beamThreshold;
+            this.candidatePruning = candidatePruning;
+        }
+
+        @Override
+        public String toString() {
+            return "unseen=" + unseenScore + " beamWidth=" + beamWidth + " beamThreshold=" + beamThreshold
+                    + " candidates=" + candidatePruning;
+        }
+    }
+
+    /**
+     * Reads and tokenizes the corpus; line pairs whose tag and word counts differ are left out
+     * @param workers - number of threads to evaluate on
+     * @throws IOException - if either file cannot be read
+     */
+    public CrossValidator(String tagsFileName, String sentencesFileName, int workers) throws IOException {
+        if (workers < 1) throw new IllegalArgumentException("workers must be at least 1, got " + workers);
+        this.workers = workers;
+        List<String[]> tagLines = new ArrayList<>();
+        List<String[]> wordLines = new ArrayList<>();
+        int skipped = 0;
+        try (BufferedReader tagsInput = Files.newBufferedReader(Paths.get(tagsFileName));
+             BufferedReader sentencesInput = Files.newBufferedReader(Paths.get(sentencesFileName))) {
+            String tagLine;
+            String sentLine;
+            while ((tagLine = tagsInput.readLine()) != null && (sentLine = sentencesInput.readLine()) != null) {
+                String[] lineTags = Tokenizer.tokens(tagLine);
+                String[] lineWords = Tokenizer.lowerTokens(sentLine);
+                if (lineTags.length != lineWords.length) {
+                    skipped++;
+                    continue;
+                }
+                tagLines.add(lineTags);
+                wordLines.add(lineWords);
+            }
+        }
+        if (skipped > 0) System.err.println("Skipped " + skipped + " lines whose tag and word counts differ");
+        tags = tagLines.toArray(new String[0][]);
+        words = wordLines.toArray(new String[0][]);
+
+        SortedSet<String> distinct = new TreeSet<>();
+        for (String[] lineTags: tags) {
+            distinct.addAll(Arrays.asList(lineTags));
+        }
+        tagSet = Collections.unmodifiableList(new ArrayList<>(distinct));
+        tagIndex = new HashMap<>();
+        for (int t = 0; t < tagSet.size(); t++) {
+            tagIndex.put(tagSet.get(t), t);
+        }
+    }
+
+    /**
+     * @return - number of usable sentences in the corpus
+     */
+    public int size() {
+        return tags.length;
+    }
+
+    /**
+     * @return - every tag of the corpus, sorted; the tag indexes of the evaluations
+     */
+    public List<String> getTagSet() {
+        return tagSet;
+    }
+
+    /**
+     * @return - results of k-fold cross-validation with one setting, summed over the folds
+     */
+    public Evaluation crossValidate(int folds, Setting setting) {
+        return sweep(folds, Collections.singletonList(setting)).get(setting);
+    }
+
+    /**
+     * Cross-validates every setting on the same folds
+     * @return - setting -> results summed over the folds, in the order of settings
+     */
+    public Map<Setting, Evaluation> sweep(int folds, List<Setting> settings) {
+        if (folds < 2 || folds > tags.length) {
+            throw new IllegalArgumentException("folds must be between 2 and " + tags.length + ", got " + folds);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            //count every part once
+            List<Future<CountTable[]>> parts = new ArrayList<>(folds);
+            for (int f = 0; f < folds; f++) {
+                int part = f;
+                parts.add(pool.submit(() -> count(part, folds)));
+            }
+            List<CountTable[]> partCounts = new ArrayList<>(folds);
+            for (Future<CountTable[]> part: parts) {
+                partCounts.add(await(part));
+            }
+
+            //training maps of each fold: every part but its own
+            List<Future<List<Map<String, Map<String, Double>>>>> models = new ArrayList<>(folds);
+            for (int f = 0; f < folds; f++) {
+                int fold = f;
+                models.add(pool.submit(() -> {
+                    CountTable transitions = new CountTable();
+                    CountTable emissions = new CountTable();
+                    for (int p = 0; p < folds; p++) {
+                        if (p == fold) continue;
+                        transitions.merge(partCounts.get(p)[0]);
+                        emissions.merge(partCounts.get(p)[1]);
+                    }
+                    return Arrays.asList(transitions.toLogProbs(), emissions.toLogProbs());
+                }));
+            }
+            List<List<Map<String, Map<String, Double>>>> foldMaps = new ArrayList<>(folds);
+            for (Future<List<Map<String, Map<String, Double>>>> model: models) {
+                foldMaps.add(await(model));
+            }
+
+            //decode every (fold, setting)
+            List<List<Future<Evaluation>>> runs = new ArrayList<>(settings.size());
+            for (Setting setting: settings) {
+                List<Future<Evaluation>> settingRuns = new ArrayList<>(folds);
+                for (int f = 0; f < folds; f++) {
+                    int fold = f;
+                    List<Map<String, Map<String, Double>>> maps = foldMaps.get(f);
+                    settingRuns.add(pool.submit(() -> test(fold, folds, maps.get(0), maps.get(1), setting)));
+                }
+                runs.add(settingRuns);
+            }
+            Map<Setting, Evaluation> results = new LinkedHashMap<>();
+            for (int s = 0; s < settings.size(); s++) {
+                Evaluation total = new Evaluation(tagSet);
+                for (Future<Evaluation> run: runs.get(s)) {
+                    total.merge(await(run));
+                }
+                results.put(settings.get(s), total);
+            }
+            return results;
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return - {transitions, emissions} of the sentences in the given part
+     */
+    private CountTable[] count(int part, int folds) {
+        CountTable transitions = new CountTable();
+        CountTable emissions = new CountTable();
+        for (int s = part; s < tags.length; s += folds) {
+            ShardedTrainer.countLine(tags[s], words[s], transitions, emissions);
+        }
+        return new CountTable[]{transitions, emissions};
+    }
+
+    /**
+     * Decodes the sentences of one fold with a model trained on the others
+     */
+    private Evaluation test(int fold, int folds, Map<String, Map<String, Double>> posMap,
+                            Map<String, Map<String, Double>> posToWordMap, Setting setting) {
+        CompiledModel model = CompiledModel.compile(posMap, posToWordMap, setting.unseenScore);
+        DecoderSession session = new DecoderSession(model);
+        session.setBeamWidth(setting.beamWidth);
+        session.setBeamThreshold(setting.beamThreshold);
+        session.setCandidatePruning(setting.candidatePruning);
+        //model tag id -> index in tagSet
+        int[] toIndex = new int[model.numTags()];
+        for (int t = 0; t < toIndex.length; t++) {
+            toIndex[t] = tagIndex.getOrDefault(model.tag(t), -1);
+        }
+
+        Evaluation evaluation = new Evaluation(tagSet);
+        int[] predicted = new int[64];
+        for (int s = fold; s < tags.length; s += folds) {
+            int length = words[s].length;
+            if (predicted.length < length) predicted = new int[length * 2];
+            session.decode(words[s], length, predicted);
+            for (int i = 0; i < length; i++) {
+                evaluation.add(tagIndex.get(tags[s][i]), predicted[i] == -1 ? -1 : toIndex[predicted[i]]);
+            }
+        }
+        return evaluation;
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while evaluating", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Sweeps UNSEEN_SCORE with k-fold cross-validation and prints the accuracy of every value, then the per-tag
+     * report and confusion matrix of the best one
+     * Run with: java CrossValidator tagsFile sentencesFile [folds] [workers]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java CrossValidator tagsFile sentencesFile [folds] [workers]");
+            return;
+        }
+        int folds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int workers = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        CrossValidator validator = new CrossValidator(args[0], args[1], workers);
+
+        List<Setting> settings = new ArrayList<>();
+        for (double unseen = -10; unseen >= -30; unseen -= 5) {
+            settings.add(new Setting(unseen));
+        }
+        long start = System.nanoTime();
+        Map<Setting, Evaluation> results = validator.sweep(folds, settings);
+        System.out.printf("%d-fold cross-validation of %d settings on %d sentences, %d workers: %.1f s%n",
+                folds, settings.size(), validator.size(), workers, (System.nanoTime() - start) / 1e9);
+
+        Setting best = null;
+        for (Map.Entry<Setting, Evaluation> result: results.entrySet()) {
+            System.out.printf("%-70s accuracy %.4f%n", result.getKey(), result.getValue().getAccuracy());
+            if (best == null || result.getValue().getAccuracy() > results.get(best).getAccuracy()) {
+                best = result.getKey();
+            }
+        }
+        System.out.println();
+        System.out.println("Best: " + best);
+        System.out.print(results.get(best).report());
+        System.out.println();
+        System.out.print(results.get(best).confusionMatrix());
+    }
+}
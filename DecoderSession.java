@@ -0,0 +1,331 @@
+import java.util.Arrays;
+
+/**
+ * Reusable Viterbi workspace over a CompiledModel.
+ * Owns the score vectors and backpointer lattice and only grows them when a longer sentence arrives, so once it has
+ * seen the longest sentence decoding allocates nothing. Not thread safe: keep one session per thread
+ */
+public class DecoderSession {
+    private final CompiledModel model;
+    private final int numTags;
+    private double[] currScores;
+    private double[] nextScores;
+    private final double[] observationScores;
+    private int[][] backTrack;      //[layer][currTag] -> prevTag, -1 if the tag was not reached
+    private int[] tagIdBuffer;      //scratch output for decode into String[]
+    private final double[] liveScores;  //scratch for finding the beam width cutoff
+    private final int[] candidateTags;          //scratch copy of a known word's emissions for relaxCandidates
+    private final double[] candidateScores;
+    private int beamWidth = 0;                                  //max live tags per layer, 0 for no limit
+    private double beamThreshold = Double.POSITIVE_INFINITY;    //max log-score distance below the layer's best
+    private boolean candidatePruning = false;   //only consider tags seen with the word (open-class tags if unknown)
+    private boolean denseLayers = false;        //exact layers as dense max-plus row updates instead of CSR relaxation
+    private final UnknownScoreCache unknownScores;      //scores of unknown words, by feature
+    private int lastUnknownWords = 0;   //out-of-vocabulary words of the last decode
+    private long lastLiveStates = 0;    //tags reached over all layers of the last decode
+
+    public DecoderSession(CompiledModel model) {
+        this(model, 16);
+    }
+
+    /**
+     * @param initialCapacity - longest sentence the lattice is pre-sized for
+     */
+    public DecoderSession(CompiledModel model, int initialCapacity) {
+        this.model = model;
+        this.numTags = model.numTags();
+        currScores = new double[numTags];
+        nextScores = new double[numTags];
+        observationScores = new double[numTags];
+        liveScores = new double[numTags];
+        candidateTags = new int[numTags];
+        candidateScores = new double[numTags];
+        backTrack = new int[0][];
+        tagIdBuffer = new int[0];
+        unknownScores = new UnknownScoreCache(model);
+        ensureCapacity(initialCapacity);
+    }
+
+    public CompiledModel getModel() {
+        return model;
+    }
+
+    /**
+     * @return - number of out-of-vocabulary words in the last decoded sentence
+     */
+    public int getLastUnknownWords() {
+        return lastUnknownWords;
+    }
+
+    /**
+     * @return - number of tags reached, summed over the layers of the last decoded sentence
+     */
+    public long getLastLiveStates() {
+        return lastLiveStates;
+    }
+
+    /**
+     * Keeps only the beamWidth best tags of every layer; 0 turns the limit off (exact decoding)
+     */
+    public void setBeamWidth(int beamWidth) {
+        if (beamWidth < 0) throw new IllegalArgumentException("beamWidth must not be negative, got " + beamWidth);
+        this.beamWidth = beamWidth;
+    }
+
+    public int getBeamWidth() {
+        return beamWidth;
+    }
+
+    /**
+     * Drops every tag whose score is more than beamThreshold below the best score of its layer;
+     * POSITIVE_INFINITY turns the threshold off (exact decoding)
+     */
+    public void setBeamThreshold(double beamThreshold) {
+        if (!(beamThreshold >= 0)) throw new IllegalArgumentException("beamThreshold must be >= 0, got " + beamThreshold);
+        this.beamThreshold = beamThreshold;
+    }
+
+    public double getBeamThreshold() {
+        return beamThreshold;
+    }
+
+    /**
+     * Restricts every word to the tags it was seen with in training, and unknown words to the open-class tags
+     * scored by the model's UnknownWordModel. Much less work per word, but no longer exact: off by default
+     */
+    public void setCandidatePruning(boolean candidatePruning) {
+        this.candidatePruning = candidatePruning;
+    }
+
+    public boolean getCandidatePruning() {
+        return candidatePruning;
+    }
+
+    /**
+     * Computes exact layers with denseLayer instead of per-tag CSR relaxation. Same tags and scores bit for bit;
+     * faster when most transitions are observed, about even when few are
+     */
+    public void setDenseLayers(boolean denseLayers) {
+        this.denseLayers = denseLayers;
+    }
+
+    public boolean getDenseLayers() {
+        return denseLayers;
+    }
+
+    /**
+     * Decodes the first length words and writes the best tag id for each into tagIds
+     * @param words - lower case words of the sentence
+     * @param tagIds - output, must hold at least length entries; -1 where no tag could be reached
+     * @return - number of tags written
+     */
+    public int decode(String[] words, int length, int[] tagIds) {
+        long start = TaggerMetrics.SESSION.time.start();
+        ensureCapacity(length);
+        double unseenScore = model.getUnseenScore();
+        int unknownWords = 0;
+        long liveStates = 0;
+
+        //begin with start state, #, and a score of 0
+        Arrays.fill(currScores, Double.NEGATIVE_INFINITY);
+        currScores[model.startTag()] = 0.0;
+
+        for (int i = 0; i < length; i++) {
+            int[] layerBack = backTrack[i];
+            int wordId = model.wordId(words[i]);
+            if (wordId == -1) unknownWords++;
+            int reached = 0;
+            if (candidatePruning) {
+                if (wordId != -1) {
+                    int count = 0;
+                    for (int e = model.emissionStart(wordId); e < model.emissionEnd(wordId); e++) {
+                        candidateTags[count] = model.emissionTag(e);
+                        candidateScores[count++] = model.emissionScore(e);
+                    }
+                    reached = relaxCandidates(candidateTags, candidateScores, count, layerBack);
+                }
+                else {
+                    int[] openClassTags = model.getUnknownWordModel().getOpenClassTags();
+                    reached = relaxCandidates(openClassTags, unknownScores.scores(words[i]), openClassTags.length, layerBack);
+                }
+            }
+            //exact layer, also the fallback when none of the candidates can be reached
+            if (reached == 0) {
+                Arrays.fill(observationScores, unseenScore);
+                if (wordId != -1) {
+                    for (int e = model.emissionStart(wordId); e < model.emissionEnd(wordId); e++) {
+                        observationScores[model.emissionTag(e)] = model.emissionScore(e);
+                    }
+                }
+                if (denseLayers) {
+                    reached = denseLayer(layerBack);
+                }
+                else {
+                    for (int next = 0; next < numTags; next++) {
+                        if (relax(next, observationScores[next], layerBack)) reached++;
+                    }
+                }
+            }
+            liveStates += reached;
+            if (beamWidth > 0 || beamThreshold != Double.POSITIVE_INFINITY) prune(nextScores);
+            double[] swap = currScores;
+            currScores = nextScores;
+            nextScores = swap;
+        }
+
+        //get best tag to start viterbi backtrack
+        int tag = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int t = 0; t < numTags; t++) {
+            if (currScores[t] > bestScore) {
+                bestScore = currScores[t];
+                tag = t;
+            }
+        }
+        for (int layer = length - 1; layer >= 0; layer--) {
+            tagIds[layer] = tag;
+            if (tag != -1) tag = backTrack[layer][tag];
+        }
+        lastUnknownWords = unknownWords;
+        lastLiveStates = liveStates;
+        if (start != 0) TaggerMetrics.SESSION.record(start, length, unknownWords, liveStates);
+        return length;
+    }
+
+    /**
+     * Decodes the first length words and writes the best tag for each into tags
+     * @param tags - output, must hold at least length entries; null where no tag could be reached
+     * @return - number of tags written
+     */
+    public int decode(String[] words, int length, String[] tags) {
+        ensureCapacity(length);
+        decode(words, length, tagIdBuffer);
+        for (int i = 0; i < length; i++) {
+            tags[i] = tagIdBuffer[i] == -1 ? null : model.tag(tagIdBuffer[i]);
+        }
+        return length;
+    }
+
+    /**
+     * Scores one tag of the next layer: the best of its incoming edges, then its observation score once;
+     * unreached predecessors score NEGATIVE_INFINITY and can never win, and of equal scores the lowest tag id wins
+     * @return - true if the tag can be reached
+     */
+    private boolean relax(int next, double observationScore, int[] layerBack) {
+        int[] predOffsets = model.predOffsets();
+        int[] predTags = model.predTags();
+        double[] predScores = model.predScores();
+        double best = Double.NEGATIVE_INFINITY;
+        int bestPrev = -1;
+        for (int e = predOffsets[next]; e < predOffsets[next + 1]; e++) {
+            double score = currScores[predTags[e]] + predScores[e];
+            if (score > best) {
+                best = score;
+                bestPrev = predTags[e];
+            }
+        }
+        nextScores[next] = bestPrev == -1 ? Double.NEGATIVE_INFINITY : best + observationScore;
+        layerBack[next] = bestPrev;
+        return bestPrev != -1;
+    }
+
+    /**
+     * Scores the whole next layer as one max-plus product, in two passes.
+     * First every reachable previous tag adds its score to its transition row and folds it into the next layer
+     * with Math.max: contiguous rows, no branches, a loop the JIT can vectorize. Then each reached tag recovers its
+     * backpointer by scanning its CSR predecessors in ascending order for the first sum equal to the maximum.
+     * The sums are the same doubles relax computes, so scores, backpointers and ties all match relax bit for bit,
+     * and the branchy argmax is paid once per edge on a mostly predictable branch instead of on every compare
+     * @return - number of tags that can be reached
+     */
+    private int denseLayer(int[] layerBack) {
+        double[][] transitions = model.transitions();
+        Arrays.fill(nextScores, Double.NEGATIVE_INFINITY);
+        for (int prev = 0; prev < numTags; prev++) {
+            double score = currScores[prev];
+            if (score == Double.NEGATIVE_INFINITY) continue;
+            double[] row = transitions[prev];
+            for (int next = 0; next < numTags; next++) {
+                nextScores[next] = Math.max(nextScores[next], score + row[next]);
+            }
+        }
+
+        //backpointers: the first predecessor, in ascending order, whose sum is exactly the maximum
+        int[] predOffsets = model.predOffsets();
+        int[] predTags = model.predTags();
+        double[] predScores = model.predScores();
+        int reached = 0;
+        for (int next = 0; next < numTags; next++) {
+            double best = nextScores[next];
+            layerBack[next] = -1;
+            if (best == Double.NEGATIVE_INFINITY) continue;
+            for (int e = predOffsets[next]; e < predOffsets[next + 1]; e++) {
+                if (currScores[predTags[e]] + predScores[e] == best) {
+                    layerBack[next] = predTags[e];
+                    break;
+                }
+            }
+            nextScores[next] = best + observationScores[next];
+            reached++;
+        }
+        return reached;
+    }
+
+    /**
+     * Scores only the candidate tags of the next layer; every other tag is unreachable
+     * @param count - number of candidates, the first count entries of candidates and candidateScores
+     * @return - number of candidates that can be reached
+     */
+    private int relaxCandidates(int[] candidates, double[] candidateScores, int count, int[] layerBack) {
+        Arrays.fill(nextScores, Double.NEGATIVE_INFINITY);
+        Arrays.fill(layerBack, 0, numTags, -1);
+        int reached = 0;
+        for (int c = 0; c < count; c++) {
+            if (relax(candidates[c], candidateScores[c], layerBack)) reached++;
+        }
+        return reached;
+    }
+
+    /**
+     * Beam pruning: removes the tags of one layer that fall outside the threshold or below the beamWidth best
+     */
+    private void prune(double[] scores) {
+        double best = Double.NEGATIVE_INFINITY;
+        for (int t = 0; t < numTags; t++) {
+            if (scores[t] > best) best = scores[t];
+        }
+        double cutoff = best - beamThreshold;
+
+        if (beamWidth > 0) {
+            int live = 0;
+            for (int t = 0; t < numTags; t++) {
+                if (scores[t] != Double.NEGATIVE_INFINITY && scores[t] >= cutoff) liveScores[live++] = scores[t];
+            }
+            if (live > beamWidth) {
+                Arrays.sort(liveScores, 0, live);
+                cutoff = Math.max(cutoff, liveScores[live - beamWidth]);
+            }
+        }
+
+        //a pruned tag is simply unreachable for the next layer
+        for (int t = 0; t < numTags; t++) {
+            if (scores[t] < cutoff) scores[t] = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Grows the backpointer lattice so it can hold a sentence of the given length
+     */
+    private void ensureCapacity(int length) {
+        if (length <= backTrack.length) return;
+        int capacity = Math.max(length, backTrack.length * 2);
+        int[][] grown = Arrays.copyOf(backTrack, capacity);
+        for (int i = backTrack.length; i < capacity; i++) {
+            grown[i] = new int[numTags];
+        }
+        //new lattice rows and the output buffer
+        TaggerMetrics.SESSION_ALLOCATED.add(4L * ((long) (capacity - backTrack.length) * numTags + capacity));
+        backTrack = grown;
+        tagIdBuffer = new int[capacity];
+    }
+}
@@ -0,0 +1,55 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Vocabulary and emission log probs of a CompiledModel: one list of (tag id, log prob) pairs per word, the pairs of
+ * word w being emissions emissionStart(w) .. emissionEnd(w)-1. Implementations keep them on the heap, in a mapped
+ * snapshot or in direct memory; all are read-only and may be shared by any number of threads
+ */
+public interface EmissionTable {
+    int numWords();
+
+    /**
+     * @return - total number of (word, tag) pairs
+     */
+    int numEmissions();
+
+    /**
+     * @return - the id of the given (lower case) word, or -1 if it is out of vocabulary
+     */
+    int wordId(String word);
+
+    /**
+     * @return - the word with the given id
+     */
+    String word(int wordId);
+
+    /**
+     * @return - length of the word's UTF-8 encoding
+     */
+    default int wordByteLength(int wordId) {
+        return word(wordId).getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Puts the word's UTF-8 bytes into target at its position, which moves past them. Tables that store the bytes
+     * copy them as they are, without decoding a String
+     */
+    default void copyWordBytes(int wordId, ByteBuffer target) {
+        target.put(word(wordId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    int emissionStart(int wordId);
+
+    int emissionEnd(int wordId);
+
+    /**
+     * @return - tag id of the given emission
+     */
+    int emissionTag(int emission);
+
+    /**
+     * @return - log prob of the given emission
+     */
+    double emissionScore(int emission);
+}
@@ -0,0 +1,144 @@
+import java.util.List;
+
+/**
+ * Tagging results over a fixed tag set: a confusion matrix of gold tag against predicted tag, from which accuracy
+ * and per-tag precision and recall are derived. The last predicted column counts words the decoder left untagged
+ * (no reachable tag). Not thread safe; give each thread its own and merge them
+ */
+public class Evaluation {
+    private final List<String> tags;
+    private final long[][] confusion;   //[gold][predicted], predicted == tags.size() for untagged words
+
+    /**
+     * @param tags - the tag set; indexes into this list are the tag indexes used by add
+     */
+    public Evaluation(List<String> tags) {
+        this.tags = tags;
+        this.confusion = new long[tags.size()][tags.size() + 1];
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    /**
+     * Counts one word
+     * @param gold - index of the correct tag
+     * @param predicted - index of the predicted tag, -1 if the word was left untagged
+     */
+    public void add(int gold, int predicted) {
+        confusion[gold][predicted == -1 ? tags.size() : predicted]++;
+    }
+
+    /**
+     * Adds the counts of another evaluation over the same tag set
+     */
+    public void merge(Evaluation other) {
+        for (int g = 0; g < confusion.length; g++) {
+            for (int p = 0; p < confusion[g].length; p++) {
+                confusion[g][p] += other.confusion[g][p];
+            }
+        }
+    }
+
+    /**
+     * @return - number of words with the given gold tag that were predicted as the other tag
+     * (predicted -1 for untagged words)
+     */
+    public long getConfusion(int gold, int predicted) {
+        return confusion[gold][predicted == -1 ? tags.size() : predicted];
+    }
+
+    public long getCorrect() {
+        long correct = 0;
+        for (int t = 0; t < confusion.length; t++) {
+            correct += confusion[t][t];
+        }
+        return correct;
+    }
+
+    public long getTotal() {
+        long total = 0;
+        for (long[] row: confusion) {
+            for (long count: row) {
+                total += count;
+            }
+        }
+        return total;
+    }
+
+    public double getAccuracy() {
+        long total = getTotal();
+        return total == 0 ? 0 : (double) getCorrect() / total;
+    }
+
+    /**
+     * @return - of the words predicted as the tag, the share that really had it; 0 if it was never predicted
+     */
+    public double getPrecision(int tag) {
+        long predicted = 0;
+        for (long[] row: confusion) {
+            predicted += row[tag];
+        }
+        return predicted == 0 ? 0 : (double) confusion[tag][tag] / predicted;
+    }
+
+    /**
+     * @return - of the words that had the tag, the share predicted as it; 0 if it never occurred
+     */
+    public double getRecall(int tag) {
+        long support = getSupport(tag);
+        return support == 0 ? 0 : (double) confusion[tag][tag] / support;
+    }
+
+    /**
+     * @return - number of words whose gold tag is the given one
+     */
+    public long getSupport(int tag) {
+        long support = 0;
+        for (long count: confusion[tag]) {
+            support += count;
+        }
+        return support;
+    }
+
+    /**
+     * @return - accuracy followed by one "tag precision recall support" line per tag that occurred
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("accuracy %.4f (%d of %d)%n", getAccuracy(), getCorrect(), getTotal()));
+        report.append(String.format("%-10s %9s %9s %9s%n", "tag", "precision", "recall", "support"));
+        for (int t = 0; t < tags.size(); t++) {
+            long support = getSupport(t);
+            if (support == 0) continue;
+            report.append(String.format("%-10s %9.4f %9.4f %9d%n", tags.get(t), getPrecision(t), getRecall(t), support));
+        }
+        return report.toString();
+    }
+
+    /**
+     * @return - the confusion matrix as text, one row per gold tag and one column per predicted tag, with a final
+     * "-" column for untagged words
+     */
+    public String confusionMatrix() {
+        int width = 6;
+        for (String tag: tags) {
+            width = Math.max(width, tag.length() + 1);
+        }
+        StringBuilder matrix = new StringBuilder();
+        matrix.append(String.format("%-" + width + "s", "gold\\"));
+        for (String tag: tags) {
+            matrix.append(String.format("%" + width + "s", tag));
+        }
+        matrix.append(String.format("%" + width + "s%n", "-"));
+        for (int g = 0; g < tags.size(); g++) {
+            matrix.append(String.format("%-" + width + "s", tags.get(g)));
+            for (long count: confusion[g]) {
+                matrix.append(String.format("%" + width + "d", count));
+            }
+            matrix.append(String.format("%n"));
+        }
+        return matrix.toString();
+    }
+}
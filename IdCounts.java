@@ -0,0 +1,124 @@
+import java.util.Arrays;
+
+/**
+ * Counts keyed by tuples of vocabulary ids packed into a long, in one open addressing table of primitives.
+ * Used to count a corpus by id and only turn the distinct keys into Strings (a CountTable) at the end. Not thread safe.
+ * A table holds either pairs (pair, first, last), whose second id can be any int, so a pair of (tag, word) takes
+ * any vocabulary, or triples (key, first, second, third) of ids up to MAX_ID each
+ */
+public class IdCounts {
+    private static final long EMPTY = -1;
+    private static final int ID_BITS = 21;          //up to ~2M ids per tuple position
+    private static final long ID_MASK = (1L << ID_BITS) - 1;
+    private static final long PAIR_MASK = (1L << (2 * ID_BITS)) - 1;    //the second id of a pair takes both slots
+    public static final int MAX_ID = (int) ID_MASK;     //largest id of a triple, or of the first id of a pair
+
+    private long[] keys = new long[1024];
+    private int[] counts = new int[1024];
+    private int size = 0;
+
+    public IdCounts() {
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * @return - the key of the triple (a, b, c)
+     */
+    public static long key(int a, int b, int c) {
+        if (((a | b | c) & ~ID_MASK) != 0) {
+            throw new IllegalArgumentException("Ids must be at most " + MAX_ID + ", got " + a + ", " + b + ", " + c);
+        }
+        return ((long) a << (2 * ID_BITS)) | ((long) b << ID_BITS) | c;
+    }
+
+    /**
+     * @return - the key of the pair (a, b); b may be any id that is not negative
+     */
+    public static long pair(int a, int b) {
+        if ((a & ~ID_MASK) != 0 || b < 0) {
+            throw new IllegalArgumentException("Ids must be at most " + MAX_ID + " and " + Integer.MAX_VALUE
+                    + ", got " + a + ", " + b);
+        }
+        return ((long) a << (2 * ID_BITS)) | b;
+    }
+
+    /**
+     * @return - first id of a pair or a triple
+     */
+    public static int first(long key) {
+        return (int) (key >>> (2 * ID_BITS));
+    }
+
+    /**
+     * @return - second id of a pair
+     */
+    public static int last(long pairKey) {
+        return (int) (pairKey & PAIR_MASK);
+    }
+
+    public static int second(long key) {
+        return (int) ((key >>> ID_BITS) & ID_MASK);
+    }
+
+    public static int third(long key) {
+        return (int) (key & ID_MASK);
+    }
+
+    public void increment(long key) {
+        add(key, 1);
+    }
+
+    /**
+     * Adds count to the key's count, e.g. to merge another table into this one
+     */
+    public void add(long key, int count) {
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        while (keys[slot] != EMPTY && keys[slot] != key) slot = (slot + 1) & mask;
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            size++;
+        }
+        counts[slot] += count;
+        //keep the table at most half full
+        if (size * 2 > keys.length) rehash();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Calls visitor once for every key counted, in no particular order
+     */
+    public void forEach(Visitor visitor) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != EMPTY) visitor.visit(keys[slot], counts[slot]);
+        }
+    }
+
+    public interface Visitor {
+        void visit(long key, int count);
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new long[oldKeys.length * 2];
+        counts = new int[oldCounts.length * 2];
+        Arrays.fill(keys, EMPTY);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) continue;
+            int slot = slot(oldKeys[i], mask);
+            while (keys[slot] != EMPTY) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            counts[slot] = oldCounts[i];
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed >>> 32) & mask;
+    }
+}
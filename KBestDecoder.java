@@ -0,0 +1,235 @@
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * List Viterbi: finds the K highest scoring tag sequences of a sentence instead of only the best one.
+ * Every tag of every layer keeps its K best partial paths as (score, previous tag, rank in previous tag) entries,
+ * sorted best first; the top sequence is the one DecoderSession finds. Not thread safe: keep one per thread
+ */
+public class KBestDecoder {
+    private final CompiledModel model;
+    private final int k;
+    private final int numTags;
+    private final double[] observationScores;
+    private double[][][] scores;    //[layer][tag][rank] -> score of the rank-th best path ending in tag
+    private int[][][] backTag;      //[layer][tag][rank] -> previous tag of that path
+    private int[][][] backRank;     //[layer][tag][rank] -> rank of that path's prefix in the previous tag
+    private int[][] counts;         //[layer][tag] -> number of paths kept
+
+    /**
+     * One decoded tag sequence and its total log score
+     */
+    public static class ScoredTags {
+        private final List<String> tags;
+        private final double score;
+
+        ScoredTags(List<String> tags, double score) {
+            this.tags = tags;
+            this.score = score;
+        }
+
+        public List<String> getTags() {
+            return tags;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return score + " " + tags;
+        }
+    }
+
+    public KBestDecoder(CompiledModel model, int k) {
+        if (k < 1) throw new IllegalArgumentException("k must be at least 1, got " + k);
+        this.model = model;
+        this.k = k;
+        this.numTags = model.numTags();
+        this.observationScores = new double[numTags];
+        ensureCapacity(16);
+    }
+
+    /**
+     * @return - up to K most likely tag sequences for the given text, best first
+     */
+    public List<ScoredTags> viterbi(String lineString) {
+        String[] line = Tokenizer.lowerTokens(lineString);
+        return decode(line, line.length);
+    }
+
+    /**
+     * @param words - lower case words of the sentence
+     * @return - up to K most likely tag sequences for the first length words, best first
+     */
+    public List<ScoredTags> decode(String[] words, int length) {
+        ensureCapacity(length + 1);
+        double[][] transitions = model.transitions();
+        boolean[] hasSuccessors = model.hasSuccessors();
+
+        //layer 0 is the start state, #, with a single path of score 0
+        Arrays.fill(counts[0], 0);
+        counts[0][model.startTag()] = 1;
+        scores[0][model.startTag()][0] = 0.0;
+
+        for (int i = 0; i < length; i++) {
+            fillObservationScores(words[i]);
+            int layer = i + 1;
+            Arrays.fill(counts[layer], 0);
+            for (int curr = 0; curr < numTags; curr++) {
+                if (counts[i][curr] == 0 || !hasSuccessors[curr]) continue;
+                double[] row = transitions[curr];
+                for (int next = 0; next < numTags; next++) {
+                    if (row[next] == Double.NEGATIVE_INFINITY) continue;
+                    for (int r = 0; r < counts[i][curr]; r++) {
+                        //paths of one tag are sorted, so once one does not fit, the rest will not either
+                        if (!insert(layer, next, scores[i][curr][r] + row[next], curr, r)) break;
+                    }
+                }
+            }
+            //the observation score is the same for every path into a tag, so it is added once the paths are
+            //chosen, in the order DecoderSession adds it: (score + transition) + observation
+            for (int next = 0; next < numTags; next++) {
+                for (int r = 0; r < counts[layer][next]; r++) {
+                    scores[layer][next][r] += observationScores[next];
+                }
+            }
+        }
+
+        //merge the final paths of every tag, best first
+        int last = length;
+        List<int[]> finals = new ArrayList<>();     //{tag, rank}
+        for (int t = 0; t < numTags; t++) {
+            for (int r = 0; r < counts[last][t]; r++) {
+                finals.add(new int[]{t, r});
+            }
+        }
+        finals.sort((a, b) -> Double.compare(scores[last][b[0]][b[1]], scores[last][a[0]][a[1]]));
+
+        List<ScoredTags> results = new ArrayList<>();
+        for (int n = 0; n < finals.size() && n < k; n++) {
+            int tag = finals.get(n)[0];
+            int rank = finals.get(n)[1];
+            double score = scores[last][tag][rank];
+            String[] tags = new String[length];
+            for (int layer = last; layer > 0; layer--) {
+                tags[layer - 1] = model.tag(tag);
+                int prevTag = backTag[layer][tag][rank];
+                rank = backRank[layer][tag][rank];
+                tag = prevTag;
+            }
+            results.add(new ScoredTags(Arrays.asList(tags), score));
+        }
+        return results;
+    }
+
+    /**
+     * Oracle accuracy of the K-best lists on the specified files: each sentence is scored by whichever of its K
+     * sequences gets the most tags right
+     * @return - list where item at idx0 is the number of correct tags, idx1 is number wrong
+     */
+    public List<Integer> testModel(String tagsFileName, String sentencesFileName) {
+        BufferedReader tagsInput;
+        BufferedReader sentencesInput;
+        int correct = 0;
+        int wrong = 0;
+
+        //create readers
+        try {
+            tagsInput = new BufferedReader(new FileReader(tagsFileName));
+            sentencesInput = new BufferedReader(new FileReader(sentencesFileName));
+        }
+        catch (FileNotFoundException e) {
+            System.err.println("Cannot open file. \n" + e.getMessage());
+            return new ArrayList<Integer>();
+        }
+        try {
+            String tagLine;
+            String sentLine;
+            while ((tagLine = tagsInput.readLine()) != null && (sentLine = sentencesInput.readLine()) != null) {
+                String[] tags = Tokenizer.tokens(tagLine);
+                if (Tokenizer.lowerTokens(sentLine).length != tags.length) {
+                    System.err.println("Skipping a sentence whose tag and word counts differ");
+                    continue;
+                }
+                int bestCorrect = 0;
+                int length = 0;
+                for (ScoredTags sequence: viterbi(sentLine)) {
+                    int sequenceCorrect = 0;
+                    length = sequence.getTags().size();
+                    for (int i = 0; i < length; i++) {
+                        if (sequence.getTags().get(i).equals(tags[i])) sequenceCorrect++;
+                    }
+                    bestCorrect = Math.max(bestCorrect, sequenceCorrect);
+                }
+                correct += bestCorrect;
+                wrong += length - bestCorrect;
+            }
+        }
+        catch (IOException e) {
+            System.err.println("IO error while reading.\n" + e.getMessage());
+        }
+        //close files
+        finally {
+            try {
+                tagsInput.close();
+                sentencesInput.close();
+            }
+            catch (IOException e) {
+                System.err.println("Cannot close file.\n" + e.getMessage());
+            }
+        }
+        List<Integer> results = new ArrayList<>();
+        results.add(0, correct);
+        results.add(1, wrong);
+        return results;
+    }
+
+    private void fillObservationScores(String word) {
+        Arrays.fill(observationScores, model.getUnseenScore());
+        int wordId = model.wordId(word);
+        if (wordId != -1) {
+            for (int e = model.emissionStart(wordId); e < model.emissionEnd(wordId); e++) {
+                observationScores[model.emissionTag(e)] = model.emissionScore(e);
+            }
+        }
+    }
+
+    /**
+     * Inserts a path into the sorted K-best list of (layer, tag); equal scores keep the earlier path first
+     * @return - false if the path was not good enough to be kept
+     */
+    private boolean insert(int layer, int tag, double score, int prevTag, int prevRank) {
+        double[] tagScores = scores[layer][tag];
+        int[] tagBackTag = backTag[layer][tag];
+        int[] tagBackRank = backRank[layer][tag];
+        int count = counts[layer][tag];
+        if (count == k && score <= tagScores[k - 1]) return false;
+
+        int pos = Math.min(count, k - 1);
+        while (pos > 0 && score > tagScores[pos - 1]) {
+            tagScores[pos] = tagScores[pos - 1];
+            tagBackTag[pos] = tagBackTag[pos - 1];
+            tagBackRank[pos] = tagBackRank[pos - 1];
+            pos--;
+        }
+        tagScores[pos] = score;
+        tagBackTag[pos] = prevTag;
+        tagBackRank[pos] = prevRank;
+        if (count < k) counts[layer][tag] = count + 1;
+        return true;
+    }
+
+    private void ensureCapacity(int layers) {
+        if (scores != null && layers <= scores.length) return;
+        int capacity = Math.max(layers, scores == null ? 0 : scores.length * 2);
+        scores = new double[capacity][numTags][k];
+        backTag = new int[capacity][numTags][k];
+        backRank = new int[capacity][numTags][k];
+        counts = new int[capacity][numTags];
+    }
+}
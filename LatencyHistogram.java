@@ -0,0 +1,127 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets: every power of two is split into SUB_BUCKETS equal
+ * buckets, so any recorded value is reported within 1/SUB_BUCKETS (12.5%) of its true value.
+ * Counts are striped like a LongAdder: each thread records into one of several bucket arrays, picked by thread id,
+ * so threads recording at once rarely touch the same cache line; reads sum the stripes
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+    //a power of two, at least the number of CPUs (capped: each stripe is 4 KB)
+    private static final int STRIPES = Integer.highestOneBit(Math.min(64, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+
+    public LatencyHistogram() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    /**
+     * Records one value, e.g. a latency in nanoseconds; negative values count as 0
+     */
+    public void record(long value) {
+        stripe().incrementAndGet(bucket(Math.max(0, value)));
+    }
+
+    /**
+     * @return - number of values recorded
+     */
+    public long getCount() {
+        long count = 0;
+        for (long n: counts()) {
+            count += n;
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile - between 0 and 100
+     * @return - upper bound of the bucket holding the given percentile, 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = counts();
+        long count = 0;
+        for (long n: counts) {
+            count += n;
+        }
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return upperBound(i);
+        }
+        return upperBound(counts.length - 1);
+    }
+
+    /**
+     * @return - mean of the recorded values, using bucket midpoints
+     */
+    public double getMean() {
+        long[] counts = counts();
+        long count = 0;
+        double sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            long n = counts[i];
+            if (n == 0) continue;
+            count += n;
+            sum += n * ((lowerBound(i) + (double) upperBound(i)) / 2);
+        }
+        return count == 0 ? 0 : sum / count;
+    }
+
+    public void reset() {
+        for (AtomicLongArray stripe: stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                stripe.set(i, 0);
+            }
+        }
+    }
+
+    /**
+     * @return - the stripe of the current thread
+     */
+    private AtomicLongArray stripe() {
+        long id = Thread.currentThread().getId();
+        return stripes[(int) (id ^ (id >>> 7) ^ (id >>> 13)) & (STRIPES - 1)];
+    }
+
+    /**
+     * @return - count per bucket, summed over the stripes
+     */
+    private long[] counts() {
+        long[] counts = new long[BUCKETS];
+        for (AtomicLongArray stripe: stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += stripe.get(i);
+            }
+        }
+        return counts;
+    }
+
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return (1L << exponent) + (sub << (exponent - SUB_BUCKET_BITS));
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return lowerBound(bucket) + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,253 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Versioned binary snapshot of a CompiledModel, so a trained model can be loaded without the training corpus.
+ * Layout (big endian):
+ *   int magic, int version, double unseenScore, int numTags, int numWords, int numEmissions, int indexSlots
+ *   numTags tags (in String order), each as int byteLength + UTF-8 bytes
+ *   double[numTags * numTags] transitions, row by row (NEGATIVE_INFINITY for never observed)
+ *   byte[numTags] hasSuccessors
+ *   int[numWords + 1] word offsets into the word bytes, then the UTF-8 bytes of every word back to back
+ *   int[2 * indexSlots] word index: open addressing slots of (word id + 1, Utf8.hash), 0 for an empty slot
+ *   int[numWords + 1] emission offsets, int[numEmissions] emission tag ids, double[numEmissions] emission log probs
+ * Loading memory-maps the file read-only and decodes words and emissions in place: only the tags and transitions are
+ * copied to the heap, so loading takes the same time whatever the vocabulary, and every JVM on the host reading the
+ * same snapshot shares its pages through the OS page cache
+ */
+public class ModelSnapshot {
+    static final int MAGIC = 0x56544147;    //"VTAG"
+    static final int VERSION = 3;    //2: tags stored in String order; 3: word bytes and index for in-place lookup
+
+    /**
+     * Writes the model to the given file, replacing it
+     * @throws IOException - if the file cannot be written
+     */
+    public static void save(CompiledModel model, String fileName) throws IOException {
+        int numTags = model.numTags();
+        int numWords = model.numWords();
+        int numEmissions = model.emissions().numEmissions();
+        int indexSlots = indexSlots(numWords);
+
+        byte[][] words = new byte[numWords][];
+        int[] index = new int[2 * indexSlots];
+        for (int w = 0; w < numWords; w++) {
+            String word = model.word(w);
+            words[w] = word.getBytes(StandardCharsets.UTF_8);
+            int hash = Utf8.hash(word);
+            int slot = hash & (indexSlots - 1);
+            while (index[2 * slot] != 0) slot = (slot + 1) & (indexSlots - 1);
+            index[2 * slot] = w + 1;
+            index[2 * slot + 1] = hash;
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeDouble(model.getUnseenScore());
+            out.writeInt(numTags);
+            out.writeInt(numWords);
+            out.writeInt(numEmissions);
+            out.writeInt(indexSlots);
+
+            for (int t = 0; t < numTags; t++) {
+                byte[] bytes = model.tag(t).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            double[][] transitions = model.transitions();
+            for (int prev = 0; prev < numTags; prev++) {
+                for (int next = 0; next < numTags; next++) {
+                    out.writeDouble(transitions[prev][next]);
+                }
+            }
+            boolean[] hasSuccessors = model.hasSuccessors();
+            for (int t = 0; t < numTags; t++) {
+                out.writeByte(hasSuccessors[t] ? 1 : 0);
+            }
+
+            //words and their index
+            int offset = 0;
+            out.writeInt(offset);
+            for (byte[] word: words) {
+                offset += word.length;
+                out.writeInt(offset);
+            }
+            for (byte[] word: words) {
+                out.write(word);
+            }
+            for (int entry: index) {
+                out.writeInt(entry);
+            }
+
+            //packed emissions
+            for (int w = 0; w < numWords; w++) {
+                out.writeInt(model.emissionStart(w));
+            }
+            out.writeInt(numEmissions);
+            for (int e = 0; e < numEmissions; e++) {
+                out.writeInt(model.emissionTag(e));
+            }
+            for (int e = 0; e < numEmissions; e++) {
+                out.writeDouble(model.emissionScore(e));
+            }
+        }
+    }
+
+    /**
+     * Memory-maps the given snapshot and builds a CompiledModel whose words and emissions are read from the mapping
+     * @throws IOException - if the file cannot be read or is not a snapshot of this version
+     */
+    public static CompiledModel load(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot is too large to map: " + channel.size() + " bytes");
+            }
+            //the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                return read(buffer);
+            }
+            catch (RuntimeException e) {
+                //BufferUnderflowException, NegativeArraySizeException... on a truncated or corrupt file
+                throw new IOException("Corrupt snapshot " + fileName, e);
+            }
+        }
+    }
+
+    private static CompiledModel read(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) throw new IOException("Not a model snapshot");
+        int version = buffer.getInt();
+        if (version != VERSION) throw new IOException("Unsupported snapshot version " + version);
+        double unseenScore = buffer.getDouble();
+        int numTags = buffer.getInt();
+        int numWords = buffer.getInt();
+        int numEmissions = buffer.getInt();
+        int indexSlots = buffer.getInt();
+        if (Integer.bitCount(indexSlots) != 1 || indexSlots <= numWords) {
+            throw new IOException("Bad word index size " + indexSlots);
+        }
+
+        String[] tags = new String[numTags];
+        for (int t = 0; t < numTags; t++) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            tags[t] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        double[][] transitions = new double[numTags][numTags];
+        for (int prev = 0; prev < numTags; prev++) {
+            buffer.asDoubleBuffer().get(transitions[prev]);
+            buffer.position(buffer.position() + numTags * Double.BYTES);
+        }
+        boolean[] hasSuccessors = new boolean[numTags];
+        for (int t = 0; t < numTags; t++) {
+            hasSuccessors[t] = buffer.get() != 0;
+        }
+
+        //everything after this point stays in the mapping
+        MappedEmissions emissions = new MappedEmissions(buffer, buffer.position(), numWords, numEmissions, indexSlots);
+        if (emissions.end > buffer.limit()) throw new IOException("Truncated snapshot");
+        return new CompiledModel(tags, transitions, hasSuccessors, emissions, unseenScore);
+    }
+
+    /**
+     * @return - number of word index slots: a power of two, so the index is at most half full
+     */
+    static int indexSlots(int numWords) {
+        return Integer.highestOneBit(Math.max(2, numWords * 2 - 1)) << 1;
+    }
+
+    /**
+     * Words and emissions read straight from the mapped file; absolute reads only, so it is safe to share
+     */
+    private static class MappedEmissions implements EmissionTable {
+        final ByteBuffer buffer;
+        final int numWords;
+        final int numEmissions;
+        final int indexMask;
+        final int wordOffsetsAt;    //positions of the sections in the buffer
+        final int wordBytesAt;
+        final int indexAt;
+        final int emissionOffsetsAt;
+        final int tagsAt;
+        final int scoresAt;
+        final int end;
+
+        MappedEmissions(ByteBuffer buffer, int position, int numWords, int numEmissions, int indexSlots) {
+            this.buffer = buffer;
+            this.numWords = numWords;
+            this.numEmissions = numEmissions;
+            this.indexMask = indexSlots - 1;
+            wordOffsetsAt = position;
+            wordBytesAt = wordOffsetsAt + (numWords + 1) * Integer.BYTES;
+            indexAt = wordBytesAt + buffer.getInt(wordOffsetsAt + numWords * Integer.BYTES);
+            emissionOffsetsAt = indexAt + 2 * indexSlots * Integer.BYTES;
+            tagsAt = emissionOffsetsAt + (numWords + 1) * Integer.BYTES;
+            scoresAt = tagsAt + numEmissions * Integer.BYTES;
+            end = scoresAt + numEmissions * Double.BYTES;
+        }
+
+        public int numWords() {
+            return numWords;
+        }
+
+        public int numEmissions() {
+            return numEmissions;
+        }
+
+        public int wordId(String word) {
+            int hash = Utf8.hash(word);
+            for (int slot = hash & indexMask; ; slot = (slot + 1) & indexMask) {
+                int id = buffer.getInt(indexAt + 2 * slot * Integer.BYTES) - 1;
+                if (id == -1) return -1;
+                if (buffer.getInt(indexAt + (2 * slot + 1) * Integer.BYTES) != hash) continue;
+                int from = buffer.getInt(wordOffsetsAt + id * Integer.BYTES);
+                int to = buffer.getInt(wordOffsetsAt + (id + 1) * Integer.BYTES);
+                if (Utf8.equals(buffer, wordBytesAt + from, to - from, word)) return id;
+            }
+        }
+
+        public int wordByteLength(int wordId) {
+            return buffer.getInt(wordOffsetsAt + (wordId + 1) * Integer.BYTES) - buffer.getInt(wordOffsetsAt + wordId * Integer.BYTES);
+        }
+
+        public void copyWordBytes(int wordId, ByteBuffer target) {
+            int from = wordBytesAt + buffer.getInt(wordOffsetsAt + wordId * Integer.BYTES);
+            int to = wordBytesAt + buffer.getInt(wordOffsetsAt + (wordId + 1) * Integer.BYTES);
+            for (int i = from; i < to; i++) {
+                target.put(buffer.get(i));
+            }
+        }
+
+        public String word(int wordId) {
+            int from = buffer.getInt(wordOffsetsAt + wordId * Integer.BYTES);
+            int to = buffer.getInt(wordOffsetsAt + (wordId + 1) * Integer.BYTES);
+            byte[] bytes = new byte[to - from];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(wordBytesAt + from + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        public int emissionStart(int wordId) {
+            return buffer.getInt(emissionOffsetsAt + wordId * Integer.BYTES);
+        }
+
+        public int emissionEnd(int wordId) {
+            return buffer.getInt(emissionOffsetsAt + (wordId + 1) * Integer.BYTES);
+        }
+
+        public int emissionTag(int emission) {
+            return buffer.getInt(tagsAt + emission * Integer.BYTES);
+        }
+
+        public double emissionScore(int emission) {
+            return buffer.getDouble(scoresAt + emission * Double.BYTES);
+        }
+    }
+}
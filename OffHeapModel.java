@@ -0,0 +1,300 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read-only model whose vocabulary and emissions live outside the Java heap, in direct ByteBuffers:
+ *   word bytes (UTF-8, back to back) and their offsets
+ *   an open addressing word index of (word id + 1, hash) slots, at most half full
+ *   per-word emission lists: offsets, tag ids (16 bit) and log probs as floats or 16-bit quantized values
+ * Only the tags and the numTags x numTags transition tables stay on the heap, so the heap footprint does not grow
+ * with the vocabulary and the garbage collector never has to trace it. The model is an EmissionTable: getModel()
+ * wraps it in a CompiledModel, so DecoderSession (and every decoder over a CompiledModel) decodes it through the
+ * same relaxation path as an on-heap model. Any number of sessions may share one model, since reads never move
+ * a buffer's position.
+ * Emission scores are rounded to the chosen Precision, at most getTolerance() away from the exact log prob, so
+ * a path's score moves by at most (sentence length) * getTolerance(); decoded tags can only differ from
+ * CompiledModel's where two paths score closer than twice that. Transitions are kept exact
+ */
+public class OffHeapModel implements EmissionTable {
+    /**
+     * Storage of the emission log probs: FLOAT is 4 bytes per (word, tag) pair, QUANTIZED 2 bytes on a uniform
+     * grid of 65536 steps between the lowest score and 0
+     */
+    public enum Precision { FLOAT, QUANTIZED }
+
+    private static final int MAX_TAGS = 1 << 16;
+
+    private final CompiledModel model;       //tags and transitions on the heap, this for emissions
+    private final int numWords;
+    private final Precision precision;
+    private final double lowestScore;        //lowest emission log prob
+    private final double quantStep;          //log prob per quantized step
+
+    private final ByteBuffer wordBytes;
+    private final IntBuffer wordOffsets;     //[word] .. [word+1]-1 in wordBytes
+    private final IntBuffer index;           //slot -> (word id + 1, hash), 0 for an empty slot
+    private final int indexMask;
+    private final IntBuffer emissionOffsets; //[word] .. [word+1]-1 in the two lists below
+    private final CharBuffer emissionTags;
+    private final FloatBuffer floatScores;   //when FLOAT
+    private final CharBuffer quantScores;    //when QUANTIZED, score = -value * quantStep
+
+    /**
+     * Copies a compiled model off the heap. Words are copied through EmissionTable.copyWordBytes, so from a mapped
+     * snapshot their bytes go straight from the file into direct memory
+     */
+    public static OffHeapModel fromModel(CompiledModel model, Precision precision) {
+        EmissionTable source = model.emissions();
+        int numWords = source.numWords();
+        int numEmissions = source.numEmissions();
+        long numBytes = 0;
+        for (int w = 0; w < numWords; w++) {
+            numBytes += source.wordByteLength(w);
+        }
+        Builder builder = new Builder(model.numTags(), numWords, numEmissions, numBytes, precision);
+        for (int w = 0; w < numWords; w++) {
+            builder.addWord(source, w);
+        }
+        double lowest = 0;
+        for (int e = 0; e < numEmissions; e++) {
+            lowest = Math.min(lowest, model.emissionScore(e));
+        }
+        builder.startEmissions(lowest);
+        for (int w = 0; w < numWords; w++) {
+            for (int e = model.emissionStart(w); e < model.emissionEnd(w); e++) {
+                builder.addEmission(model.emissionTag(e), model.emissionScore(e));
+            }
+            builder.endWord();
+        }
+        String[] tags = new String[model.numTags()];
+        for (int t = 0; t < tags.length; t++) {
+            tags[t] = model.tag(t);
+        }
+        return new OffHeapModel(tags, model.transitions(), model.hasSuccessors(), model.getUnseenScore(), builder);
+    }
+
+    /**
+     * Builds the model from a snapshot written by ModelSnapshot.save, streaming the vocabulary and emissions from
+     * the mapped file into direct memory without ever holding them on the heap: ModelSnapshot.load only reads the
+     * tags and transitions, and the word bytes and emissions are copied from the mapping
+     * @throws IOException - if the file cannot be read or is not a snapshot
+     */
+    public static OffHeapModel load(String snapshotFileName, Precision precision) throws IOException {
+        return fromModel(ModelSnapshot.load(snapshotFileName), precision);
+    }
+
+    /**
+     * Fills the direct buffers: words first, then each word's emissions in word order
+     */
+    private static class Builder {
+        final Precision precision;
+        final ByteBuffer wordBytes;
+        final IntBuffer wordOffsets;
+        final IntBuffer index;
+        final int indexMask;
+        final IntBuffer emissionOffsets;
+        final CharBuffer emissionTags;
+        final FloatBuffer floatScores;
+        final CharBuffer quantScores;
+        double lowestScore = 0;
+        double quantStep = 1;
+        int words = 0;
+        int emissions = 0;
+
+        Builder(int numTags, int numWords, int numEmissions, long numBytes, Precision precision) {
+            if (numTags > MAX_TAGS) throw new IllegalArgumentException("At most " + MAX_TAGS + " tags, got " + numTags);
+            if (numBytes > Integer.MAX_VALUE) throw new IllegalArgumentException("Vocabulary over 2 GB: " + numBytes + " bytes");
+            this.precision = precision;
+            wordBytes = allocate(numBytes);
+            wordOffsets = allocate((numWords + 1L) * Integer.BYTES).asIntBuffer();
+            int slots = Integer.highestOneBit(Math.max(2, numWords * 2 - 1)) << 1;
+            index = allocate(2L * slots * Integer.BYTES).asIntBuffer();
+            indexMask = slots - 1;
+            emissionOffsets = allocate((numWords + 1L) * Integer.BYTES).asIntBuffer();
+            emissionTags = allocate((long) numEmissions * Character.BYTES).asCharBuffer();
+            floatScores = precision == Precision.FLOAT ? allocate((long) numEmissions * Float.BYTES).asFloatBuffer() : null;
+            quantScores = precision == Precision.QUANTIZED ? allocate((long) numEmissions * Character.BYTES).asCharBuffer() : null;
+        }
+
+        /**
+         * Copies the UTF-8 bytes of the source's next word and indexes it
+         */
+        void addWord(EmissionTable source, int wordId) {
+            int offset = wordBytes.position();
+            wordOffsets.put(words, offset);
+            source.copyWordBytes(wordId, wordBytes);
+            wordOffsets.put(words + 1, wordBytes.position());
+            int hash = Utf8.hash(wordBytes, offset, wordBytes.position() - offset);
+            int slot = hash & indexMask;
+            while (index.get(2 * slot) != 0) slot = (slot + 1) & indexMask;
+            index.put(2 * slot, words + 1);
+            index.put(2 * slot + 1, hash);
+            words++;
+        }
+
+        /**
+         * @param lowest - lowest emission log prob, the bottom of the quantization grid
+         */
+        void startEmissions(double lowest) {
+            lowestScore = lowest;
+            if (lowest < 0) quantStep = -lowest / Character.MAX_VALUE;
+            emissionOffsets.put(0, 0);
+            words = 0;
+        }
+
+        void addEmission(int tagId, double score) {
+            emissionTags.put(emissions, (char) tagId);
+            if (precision == Precision.FLOAT) {
+                floatScores.put(emissions, (float) score);
+            }
+            else {
+                //clamped to the grid: a score above 0 would otherwise wrap around to the bottom
+                long steps = Math.max(0, Math.min(Character.MAX_VALUE, Math.round(-score / quantStep)));
+                quantScores.put(emissions, (char) steps);
+            }
+            emissions++;
+        }
+
+        void endWord() {
+            emissionOffsets.put(++words, emissions);
+        }
+
+        private static ByteBuffer allocate(long bytes) {
+            if (bytes > Integer.MAX_VALUE) throw new IllegalArgumentException("Table over 2 GB: " + bytes + " bytes");
+            return ByteBuffer.allocateDirect((int) Math.max(1, bytes)).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    private OffHeapModel(String[] tags, double[][] transitions, boolean[] hasSuccessors, double unseenScore,
+                         Builder builder) {
+        this.numWords = builder.words;
+        this.precision = builder.precision;
+        this.lowestScore = builder.lowestScore;
+        this.quantStep = builder.quantStep;
+        this.wordBytes = builder.wordBytes;
+        this.wordOffsets = builder.wordOffsets;
+        this.index = builder.index;
+        this.indexMask = builder.indexMask;
+        this.emissionOffsets = builder.emissionOffsets;
+        this.emissionTags = builder.emissionTags;
+        this.floatScores = builder.floatScores;
+        this.quantScores = builder.quantScores;
+        this.model = new CompiledModel(tags, transitions, hasSuccessors, this, unseenScore);
+    }
+
+    /**
+     * Uses Viterbi decoding over the off-heap tables
+     * @return - List of most likely tags corresponding to the words in the provided text
+     */
+    public List<String> viterbi(String lineString) {
+        String[] line = Tokenizer.lowerTokens(lineString);
+        String[] result = new String[line.length];
+        new DecoderSession(model).decode(line, line.length, result);
+        return new ArrayList<>(Arrays.asList(result));
+    }
+
+    /**
+     * @return - the model as a CompiledModel reading its emissions from here, for DecoderSession and the other decoders
+     */
+    public CompiledModel getModel() {
+        return model;
+    }
+
+    public int numTags() {
+        return model.numTags();
+    }
+
+    public int numWords() {
+        return numWords;
+    }
+
+    public int numEmissions() {
+        return emissionOffsets.get(numWords);
+    }
+
+    public String tag(int tagId) {
+        return model.tag(tagId);
+    }
+
+    public double getUnseenScore() {
+        return model.getUnseenScore();
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * @return - largest difference between a stored emission score and the exact log prob
+     */
+    public double getTolerance() {
+        if (precision == Precision.QUANTIZED) return quantStep / 2;
+        //float rounding: half an ulp of the largest magnitude stored
+        return Math.ulp((float) lowestScore) / 2;
+    }
+
+    /**
+     * @return - bytes held in direct memory
+     */
+    public long offHeapBytes() {
+        long bytes = wordBytes.capacity() + 4L * (wordOffsets.capacity() + index.capacity() + emissionOffsets.capacity())
+                + 2L * emissionTags.capacity();
+        bytes += precision == Precision.FLOAT ? 4L * floatScores.capacity() : 2L * quantScores.capacity();
+        return bytes;
+    }
+
+    public int wordId(String word) {
+        int hash = Utf8.hash(word);
+        for (int slot = hash & indexMask; ; slot = (slot + 1) & indexMask) {
+            int id = index.get(2 * slot) - 1;
+            if (id == -1) return -1;
+            if (index.get(2 * slot + 1) != hash) continue;
+            int from = wordOffsets.get(id);
+            if (Utf8.equals(wordBytes, from, wordOffsets.get(id + 1) - from, word)) return id;
+        }
+    }
+
+    public int wordByteLength(int wordId) {
+        return wordOffsets.get(wordId + 1) - wordOffsets.get(wordId);
+    }
+
+    public void copyWordBytes(int wordId, ByteBuffer target) {
+        for (int i = wordOffsets.get(wordId); i < wordOffsets.get(wordId + 1); i++) {
+            target.put(wordBytes.get(i));
+        }
+    }
+
+    public String word(int wordId) {
+        int from = wordOffsets.get(wordId);
+        byte[] bytes = new byte[wordOffsets.get(wordId + 1) - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = wordBytes.get(from + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public int emissionStart(int wordId) {
+        return emissionOffsets.get(wordId);
+    }
+
+    public int emissionEnd(int wordId) {
+        return emissionOffsets.get(wordId + 1);
+    }
+
+    public int emissionTag(int emission) {
+        return emissionTags.get(emission);
+    }
+
+    public double emissionScore(int emission) {
+        if (precision == Precision.FLOAT) return floatScores.get(emission);
+        return -quantScores.get(emission) * quantStep;
+    }
+}
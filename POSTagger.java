@@ -2,6 +2,7 @@ import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.NoSuchFileException;
 import java.util.*;
 
 public class POSTagger {
@@ -9,6 +10,52 @@ public class POSTagger {
     private Map<String, Map<String, Double>> posToWordMap;    //Map POS -> (Map observedWord -> log prob of occurrences)
     private final double UNSEEN_SCORE = -20;
 
+    //raw counts behind posMap and posToWordMap, kept so update can renormalize without retraining;
+    //null when the model was not trained here (loaded from a snapshot or hard coded)
+    private CountTable transitionCounts;
+    private CountTable emissionCounts;
+    private CountTable trigramCounts;   //"POS POS" -> (POS -> count), for the second-order model
+    private final Set<String> staleTransitionTags = new HashSet<>();    //tags whose posMap row needs renormalizing
+    private final Set<String> staleEmissionTags = new HashSet<>();      //tags whose posToWordMap row needs renormalizing
+    private volatile boolean stale = false;
+    private volatile long modelVersion = 0;     //bumped every time new maps are published
+    private final Object updateLock = new Object();
+
+    //model loaded by the snapshot constructor, decoded in place from the mapped file until training publishes maps;
+    //null otherwise. Each thread decodes it with its own session
+    private CompiledModel snapshotModel;
+    private final ThreadLocal<DecoderSession> snapshotSessions = new ThreadLocal<>();
+
+    //optional caches of decoded sentences and of Viterbi frontiers after common prefixes; null when off
+    private static final int[] PREFIX_LENGTHS = {16, 8, 4};   //prefix lengths whose frontiers are cached, longest first
+    private static final int[] PREFIX_ASCENDING = {4, 8, 16};
+    private volatile SentenceCache<List<String>> resultCache;
+    private volatile SentenceCache<Frontier> prefixCache;
+
+    /**
+     * Viterbi state after the first words of a sentence: the live tags, their scores and the backpointer layers
+     * so far. None of these are modified once the layer after them has been computed, so they are shared as is
+     */
+    private static class Frontier {
+        final Set<String> tags;
+        final Map<String, Double> scores;
+        final List<Map<String, String>> backTrack;
+
+        Frontier(Set<String> tags, Map<String, Double> scores, List<Map<String, String>> backTrack) {
+            this.tags = tags;
+            this.scores = scores;
+            this.backTrack = backTrack;
+        }
+
+        long bytes() {
+            long bytes = 64L * scores.size();
+            for (Map<String, String> layer: backTrack) {
+                bytes += 64L * layer.size() + 48;
+            }
+            return bytes;
+        }
+    }
+
     public POSTagger (String tagsFileName, String sentencesFileName){
         posMap = new HashMap<>();
         posToWordMap = new HashMap<>();
@@ -16,13 +63,64 @@ public class POSTagger {
         train(tagsFileName, sentencesFileName);
     }
 
+    /**
+     * Loads a model written by save instead of retraining from the corpus. The snapshot is memory-mapped and decoded
+     * in place, as ModelSnapshot.load leaves it: no map is built, and compile returns the mapped model as is
+     * @param snapshotFileName - file written by save / ModelSnapshot.save
+     */
+    public POSTagger (String snapshotFileName) {
+        posMap = new HashMap<>();
+        posToWordMap = new HashMap<>();
+
+        try {
+            snapshotModel = ModelSnapshot.load(snapshotFileName);
+        }
+        catch (IOException e) {
+            System.err.println("Cannot load model snapshot.\n" + e.getMessage());
+        }
+    }
+
     /**
      * Uses Viterbi decoding to find more probable list of tags for the given sentence
      * @return - List of most likely tags corresponding to the words in the provided text
      */
     public List<String> viterbi (String lineString) {
-        Map<Integer, Map<String, String>> backTrack = new HashMap<>(); //map (layer -> map(currTag -> prevTag))
-        String[] line = lineString.toLowerCase().split(" ");
+        long start = TaggerMetrics.VITERBI.time.start();
+        //-1 unless allocation sampling is on; the ThreadMXBean reads cost more than a short sentence's decode
+        long allocatedBefore = start != 0 && TaggerMetrics.isAllocationSampling() ? allocatedBytes() : -1;
+        //read a consistent pair of maps; updates publish new maps instead of changing these
+        refresh();
+        Map<String, Map<String, Double>> posMap;
+        Map<String, Map<String, Double>> posToWordMap;
+        CompiledModel snapshot;
+        long version;
+        synchronized (this) {
+            posMap = this.posMap;
+            posToWordMap = this.posToWordMap;
+            snapshot = snapshotModel;
+            version = modelVersion;
+        }
+        List<Map<String, String>> backTrack = new ArrayList<>(); //list (layer -> map(currTag -> prevTag))
+        String[] line = Tokenizer.lowerTokens(lineString);
+
+        //repeated sentence: nothing to decode
+        SentenceCache<List<String>> results = resultCache;
+        SentenceCache<Frontier> prefixes = prefixCache;
+        String key = null;
+        if (results != null) {
+            key = String.join(" ", line);
+            List<String> cached = results.get(key, version);
+            if (cached != null) {
+                if (start != 0) {
+                    TaggerMetrics.VITERBI.recordCacheHit(start, line.length);
+                    if (allocatedBefore != -1) TaggerMetrics.VITERBI_ALLOCATED.record(allocatedBytes() - allocatedBefore);
+                }
+                return new ArrayList<>(cached);
+            }
+        }
+        if (snapshot != null) {
+            return viterbiSnapshot(snapshot, line, results, key, version, start, allocatedBefore);
+        }
 
         //work forward
         //begin with start state, #
@@ -31,12 +129,34 @@ public class POSTagger {
         //begin with a score of 0 at start
         Map<String, Double> currScores = new HashMap<>();
         currScores.put("#", 0.0);
+        int first = 0;
+        //or resume from the frontier of the longest cached prefix
+        if (prefixes != null) {
+            for (int length: PREFIX_LENGTHS) {
+                if (length >= line.length) continue;
+                Frontier frontier = prefixes.get(String.join(" ", Arrays.asList(line).subList(0, length)), version);
+                if (frontier == null) continue;
+                currTags = frontier.tags;
+                currScores = frontier.scores;
+                backTrack.addAll(frontier.backTrack);
+                first = length;
+                break;
+            }
+        }
 
+        int unknownWords = 0;   //words no reachable tag was seen with
+        long liveStates = 0;
         //loop through every word, stopping at the second to last one
-        for (int i = 0; i < line.length; i++) {
+        for (int i = first; i < line.length; i++) {
+            //offer the frontier after the first i words for reuse by later sentences
+            if (prefixes != null && i > first && Arrays.binarySearch(PREFIX_ASCENDING, i) >= 0) {
+                Frontier frontier = new Frontier(currTags, currScores, new ArrayList<>(backTrack));
+                prefixes.put(String.join(" ", Arrays.asList(line).subList(0, i)), frontier, frontier.bytes(), version);
+            }
+            boolean seen = false;
             Set<String> nextTags = new HashSet<>();
             Map<String, Double> nextScores = new HashMap<>();
-            backTrack.put(i, new HashMap<String, String>());
+            backTrack.add(new HashMap<String, String>());
 
             //loop through every current tag
             for(String currTag: currTags) {
@@ -47,6 +167,7 @@ public class POSTagger {
                         double observationScore;
                         if (posToWordMap.containsKey(nextTag) && posToWordMap.get(nextTag).containsKey(line[i])) {
                             observationScore = posToWordMap.get(nextTag).get(line[i]);
+                            seen = true;
                         }
                         else observationScore = UNSEEN_SCORE;
                         double nextScore = currScores.get(currTag) + posMap.get(currTag).get(nextTag) + observationScore;
@@ -57,6 +178,8 @@ public class POSTagger {
                     }
                 }
             }
+            if (!seen) unknownWords++;
+            liveStates += nextTags.size();
             currTags = nextTags;
             currScores = nextScores;
         }
@@ -86,114 +209,254 @@ public class POSTagger {
         while(!tags.empty()) {
             s.add(tags.pop());
         }
+        if (results != null) {
+            results.put(key, Collections.unmodifiableList(new ArrayList<>(s)), 48L + 8L * s.size(), version);
+        }
+        if (start != 0) {
+            TaggerMetrics.VITERBI.record(start, line.length - first, unknownWords, liveStates);
+            if (allocatedBefore != -1) TaggerMetrics.VITERBI_ALLOCATED.record(allocatedBytes() - allocatedBefore);
+        }
+        return s;
+    }
+
+    /**
+     * viterbi over the mapped snapshot model, with the same result cache and metrics
+     */
+    private List<String> viterbiSnapshot(CompiledModel snapshot, String[] line, SentenceCache<List<String>> results,
+                                         String key, long version, long start, long allocatedBefore) {
+        DecoderSession session = snapshotSessions.get();
+        if (session == null || session.getModel() != snapshot) {
+            session = new DecoderSession(snapshot);
+            snapshotSessions.set(session);
+        }
+        String[] tags = new String[line.length];
+        session.decode(line, line.length, tags);
+        List<String> s = new ArrayList<>(Arrays.asList(tags));
+        if (results != null) {
+            results.put(key, Collections.unmodifiableList(new ArrayList<>(s)), 48L + 8L * s.size(), version);
+        }
+        if (start != 0) {
+            TaggerMetrics.VITERBI.record(start, line.length, session.getLastUnknownWords(), session.getLastLiveStates());
+            if (allocatedBefore != -1) TaggerMetrics.VITERBI_ALLOCATED.record(allocatedBytes() - allocatedBefore);
+        }
         return s;
     }
 
     /**
      * Build occurrence maps
+     * Both files are memory-mapped and counted by vocabulary id (ShardedTrainer.countCorpus), so no String is built
+     * per token; lines whose tag and word counts differ are skipped with a warning instead of failing the whole run
      * @param tagsFileName
      * @param sentencesFileName
      */
     public void train (String tagsFileName, String sentencesFileName) {
-        BufferedReader tagsInput;
-        BufferedReader sentencesInput;
-
-        //create readers
-        try{
-            tagsInput = new BufferedReader(new FileReader(tagsFileName));
-            sentencesInput = new BufferedReader(new FileReader(sentencesFileName));
+        long start = TaggerMetrics.TRAIN_TIME.start();
+        CountTable[] counts;
+        try {
+            counts = ShardedTrainer.countCorpus(tagsFileName, sentencesFileName);
         }
-        catch (FileNotFoundException e) {
+        catch (NoSuchFileException e) {
             System.err.println("Cannot open file. \n" + e.getMessage());
             return;
         }
-        //loop through files and build maps
-        try{
-            String tagLine;
-            String sentLine;
+        catch (IOException e) {
+            System.err.println("IO error while reading.\n" + e.getMessage());
+            return;
+        }
 
-            while ((tagLine = tagsInput.readLine()) != null && (sentLine = sentencesInput.readLine()) != null) {
-                String[] tags = tagLine.split(" ");
-                String[] words = sentLine.toLowerCase().split(" ");
-                //loop through files and add to map
-                for (int i = 0; i < tags.length; i++) {
-                    //add values to tag map
-                    if (i == 0) {
-                        if (!posMap.containsKey("#")) {
-                            posMap.put("#", new HashMap<String, Double>());
-                        }
-                        if (!posMap.get("#").containsKey(tags[0])) { //if this is the first time seeing this sequence of tags
-                            posMap.get("#").put(tags[0], 1.0);
-                        }
-                        else {
-                            posMap.get("#").put(tags[0], posMap.get("#").get(tags[0])+1);
-                        }
-                    }
-                    else if (!posMap.containsKey(tags[i-1])) {  //if first time seeing the preceding tag
-                        posMap.put(tags[i-1], new HashMap<String, Double>());
-                        posMap.get(tags[i-1]).put(tags[i], 1.0);
-                    }
-                    else {
-                        if (!posMap.get(tags[i-1]).containsKey(tags[i])) { //if this is the first time seeing this sequence of tags
-                            posMap.get(tags[i-1]).put(tags[i], 1.0);
-                        }
-                        else {
-                            posMap.get(tags[i-1]).put(tags[i], posMap.get(tags[i-1]).get(tags[i])+1);
-                        }
-                    }
-                    //add values to POS->word map
-                    if (!posToWordMap.containsKey(tags[i])) {
-                        posToWordMap.put(tags[i], new HashMap<String, Double>());
-                        posToWordMap.get(tags[i]).put(words[i], 1.0);
-                    }
-                    else {
-                        if (!posToWordMap.get(tags[i]).containsKey(words[i])) {     //if this is the first time seeing this sequence of tag --> word
-                            posToWordMap.get(tags[i]).put(words[i], 1.0);
-                        }
-                        else {
-                            posToWordMap.get(tags[i]).put(words[i], posToWordMap.get(tags[i]).get(words[i])+1);
-                        }
-                    }
-                }
+        //keep the raw counts so update can renormalize later without retraining
+        synchronized (updateLock) {
+            transitionCounts = counts[0];
+            emissionCounts = counts[1];
+            trigramCounts = counts[2];
+            staleTransitionTags.clear();
+            staleEmissionTags.clear();
+            stale = false;
+            //log((count)/(total count of the tag)) for every entry of both maps
+            publish(transitionCounts.toLogProbs(), emissionCounts.toLogProbs());
+        }
+        TaggerMetrics.TRAIN_TIME.stop(start);
+    }
+
+    /**
+     * Builds the occurrence maps like train, but counts shards of the files on several threads and merges the
+     * counts before normalizing; the resulting maps are the same as the ones train builds
+     * @param workers - number of counting threads
+     */
+    public void trainSharded(String tagsFileName, String sentencesFileName, int workers) {
+        long start = TaggerMetrics.TRAIN_TIME.start();
+        ShardedTrainer trainer = new ShardedTrainer(workers);
+        if (trainer.train(tagsFileName, sentencesFileName)) {
+            synchronized (updateLock) {
+                transitionCounts = trainer.getTransitionCounts();
+                emissionCounts = trainer.getEmissionCounts();
+                trigramCounts = trainer.getTrigramCounts();
+                staleTransitionTags.clear();
+                staleEmissionTags.clear();
+                stale = false;
+                publish(transitionCounts.toLogProbs(), emissionCounts.toLogProbs());
             }
+            TaggerMetrics.TRAIN_TIME.stop(start);
+        }
+    }
 
-            //sum totals in posMap and calc log probabilities to update the maps
-            for(String pos: posMap.keySet()) { //loop through every tag in posMap
-                double count = 0;
-                //find the total count of for this tag
-                for(String subPos: posMap.get(pos).keySet()) {
-                    count += posMap.get(pos).get(subPos);
-                }
-                //reset each number in subMap to be log((originalNumber)/count)
-                for(String subPos: posMap.get(pos).keySet()) {
-                    posMap.get(pos).put(subPos, Math.log(posMap.get(pos).get(subPos)/count));
-                }
+    /**
+     * Adds one more tagged sentence to the model without retraining. Only the counts are updated here; the rows
+     * of posMap and posToWordMap it touches are renormalized on the next viterbi/compile (or refresh) and published
+     * as new maps, so viterbi calls already running keep decoding against the model they started with
+     * @param tagLine - the tags of the sentence, separated by spaces
+     * @param sentence - the words of the sentence, separated by spaces
+     */
+    public void update(String tagLine, String sentence) {
+        String[] tags = Tokenizer.tokens(tagLine);
+        String[] words = Tokenizer.lowerTokens(sentence);
+        if (words.length != tags.length) {
+            throw new IllegalArgumentException("Sentence has " + words.length + " words for " + tags.length + " tags");
+        }
+        synchronized (updateLock) {
+            if (transitionCounts == null) {
+                throw new IllegalStateException("Model has no counts to update; train it first");
             }
-            //repeat for posToWordMap
-            for(String pos: posToWordMap.keySet()) { //loop through every tag in posMap
-                double count = 0;
-                //find the total count of for this word
-                for(String word: posToWordMap.get(pos).keySet()) {
-                    count += posToWordMap.get(pos).get(word);
-                }
-                //convert each number in subMap to be log((originalNumber)/count)
-                for(String word: posToWordMap.get(pos).keySet()) {
-                    posToWordMap.get(pos).put(word, Math.log(posToWordMap.get(pos).get(word)/count));
-                }
+            ShardedTrainer.countLine(tags, words, transitionCounts, emissionCounts);
+            ShardedTrainer.countTrigrams(tags, trigramCounts);
+            for (int i = 0; i < tags.length; i++) {
+                staleTransitionTags.add(i == 0 ? "#" : tags[i-1]);
+                staleEmissionTags.add(tags[i]);
             }
+            stale = true;
         }
-        catch (IOException e) {
-            System.err.println("IO error while reading.\n" + e.getMessage());
-        }
-        //close files
-        finally {
-            try {
-                tagsInput.close();
-                sentencesInput.close();
+        TaggerMetrics.UPDATES.increment();
+    }
+
+    /**
+     * Renormalizes the rows changed by update and publishes them (copy on write: unchanged rows are shared with
+     * the previous maps, which are never modified once published)
+     */
+    public void refresh() {
+        if (!stale) return;
+        synchronized (updateLock) {
+            if (!stale) return;
+            Map<String, Map<String, Double>> newPosMap = new HashMap<>(posMap);
+            Map<String, Map<String, Double>> newPosToWordMap = new HashMap<>(posToWordMap);
+            for (String tag: staleTransitionTags) {
+                newPosMap.put(tag, transitionCounts.rowToLogProbs(tag));
             }
-            catch (IOException e) {
-                System.err.println("Cannot close file.\n" + e.getMessage());
+            for (String tag: staleEmissionTags) {
+                newPosToWordMap.put(tag, emissionCounts.rowToLogProbs(tag));
+            }
+            staleTransitionTags.clear();
+            staleEmissionTags.clear();
+            stale = false;
+            publish(newPosMap, newPosToWordMap);
+        }
+    }
+
+    /**
+     * Builds the optional second-order (trigram) model from the current counts
+     * @return - trigram model sharing the compiled emissions of compile()
+     */
+    public TrigramModel compileTrigram() {
+        synchronized (updateLock) {
+            if (trigramCounts == null) {
+                throw new IllegalStateException("Model has no trigram counts; train it first");
             }
+            //compile under the same lock, so no update can add tags between the maps and the counts
+            CompiledModel model = compile();
+            return new TrigramModel(model, transitionCounts, trigramCounts);
+        }
+    }
+
+    /**
+     * Caches viterbi results by normalized sentence, and the Viterbi frontier after the first 4, 8 and 16 words of
+     * sentences so a sentence sharing a cached prefix resumes from there instead of from #. Entries are dropped
+     * whenever training or an update publishes new maps
+     * @param maxEntries - most sentences cached; a quarter as many prefix frontiers are kept
+     * @param maxBytes - memory budget, shared equally between sentences and frontiers
+     */
+    public synchronized void enableCache(int maxEntries, long maxBytes) {
+        SentenceCache<List<String>> results = new SentenceCache<>(maxEntries, Math.max(1, maxBytes / 2));
+        SentenceCache<Frontier> prefixes = new SentenceCache<>(Math.max(1, maxEntries / 4), Math.max(1, maxBytes / 2));
+        results.invalidate(modelVersion);
+        prefixes.invalidate(modelVersion);
+        resultCache = results;
+        prefixCache = prefixes;
+    }
+
+    public synchronized void disableCache() {
+        resultCache = null;
+        prefixCache = null;
+    }
+
+    /**
+     * @return - statistics of the sentence cache, then of the prefix cache, as "name value" lines; empty if off
+     */
+    public String cacheStats() {
+        SentenceCache<List<String>> results = resultCache;
+        SentenceCache<Frontier> prefixes = prefixCache;
+        if (results == null || prefixes == null) return "";
+        return results.stats().replaceAll("(?m)^", "sentence_") + prefixes.stats().replaceAll("(?m)^", "prefix_");
+    }
+
+    /**
+     * @return - number of times the maps have been replaced by training or updates
+     */
+    public long getModelVersion() {
+        return modelVersion;
+    }
+
+    private synchronized void publish(Map<String, Map<String, Double>> newPosMap,
+                                      Map<String, Map<String, Double>> newPosToWordMap) {
+        posMap = newPosMap;
+        posToWordMap = newPosToWordMap;
+        snapshotModel = null;
+        modelVersion++;
+        //cached results belong to the old maps
+        SentenceCache<List<String>> results = resultCache;
+        SentenceCache<Frontier> prefixes = prefixCache;
+        if (results != null) results.invalidate(modelVersion);
+        if (prefixes != null) prefixes.invalidate(modelVersion);
+    }
+
+    /**
+     * @return - bytes allocated by the current thread so far, 0 if the JVM cannot tell
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    /**
+     * Freezes the trained maps into a CompiledModel that decodes over primitive arrays
+     * @return - compiled copy of the current model (the mapped model itself if loaded from a snapshot); later
+     * changes to this tagger do not affect it
+     */
+    public CompiledModel compile() {
+        refresh();
+        Map<String, Map<String, Double>> posMap;
+        Map<String, Map<String, Double>> posToWordMap;
+        synchronized (this) {
+            if (snapshotModel != null) return snapshotModel;
+            posMap = this.posMap;
+            posToWordMap = this.posToWordMap;
+        }
+        return CompiledModel.compile(posMap, posToWordMap, UNSEEN_SCORE);
+    }
+
+    /**
+     * Saves the trained model as a binary snapshot that the POSTagger(snapshotFileName) constructor can load
+     * @return - true if the snapshot was written
+     */
+    public boolean save(String snapshotFileName) {
+        try {
+            ModelSnapshot.save(compile(), snapshotFileName);
+            return true;
+        }
+        catch (IOException e) {
+            System.err.println("Cannot save model snapshot.\n" + e.getMessage());
+            return false;
         }
     }
 
@@ -202,6 +465,7 @@ public class POSTagger {
      * @return - list where item at idx0 is the number of correct tags, idx1 is number wrong
      */
     public List<Integer> testModel(String tagsFileName, String sentencesFileName) {
+        long start = TaggerMetrics.TEST_TIME.start();
         BufferedReader tagsInput;
         BufferedReader sentencesInput;
         int correct = 0;
@@ -223,11 +487,17 @@ public class POSTagger {
             List<String> viterbiTagLine;
 
             while ((tagLine = tagsInput.readLine()) != null && (sentLine = sentencesInput.readLine()) != null) {
-                String[] tags = tagLine.split(" ");
+                String[] tags = Tokenizer.tokens(tagLine);
                 viterbiTagLine = viterbi(sentLine);
+                if (viterbiTagLine.size() != tags.length) {
+                    System.err.println("Skipping a sentence with " + viterbiTagLine.size() + " words for "
+                            + tags.length + " tags");
+                    continue;
+                }
 
+                //a snapshot-backed tagger leaves unreachable positions null, which count as wrong
                 for (int i = 0; i < viterbiTagLine.size(); i++) {
-                    if (viterbiTagLine.get(i).equals(tags[i])) {
+                    if (tags[i].equals(viterbiTagLine.get(i))) {
                         correct++;
                     }
                     else {
@@ -250,6 +520,9 @@ public class POSTagger {
                 System.err.println("Cannot close file.\n" + e.getMessage());
             }
         }
+        TaggerMetrics.TEST_CORRECT.add(correct);
+        TaggerMetrics.TEST_WRONG.add(wrong);
+        TaggerMetrics.TEST_TIME.stop(start);
         List<Integer> results = new ArrayList<>();
         results.add(0, correct);
         results.add(1, wrong);
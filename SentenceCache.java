@@ -0,0 +1,258 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent, size- and memory-bounded cache of decoding results keyed by normalized sentence (or prefix) text.
+ * Keys are spread over up to SEGMENTS independently locked segments (fewer for caps under SEGMENTS entries), each
+ * an LRU list with its share of the entry and byte budgets; the shares add up to exactly the caps. Admission follows TinyLFU: every lookup counts the key in a small count-min frequency sketch that
+ * is halved periodically, and when a full segment would have to evict its LRU victim for a new entry, the new
+ * entry only gets in if its key has been asked for more often than the victim's. One-off sentences therefore
+ * cannot flush out the boilerplate that makes the cache worth having.
+ * Every entry belongs to a model version; invalidate(version) drops everything older, results computed
+ * against an older model are never stored, and get only returns an entry of the version the caller decodes with
+ * @param <V> - the cached value, treated as immutable
+ */
+public class SentenceCache<V> {
+    private static final int SEGMENTS = 16;
+    private static final long ENTRY_OVERHEAD = 96;  //approximate bytes of map entry, key object and bookkeeping
+
+    private final Segment<V>[] segments;
+    private volatile long version;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();   //entries TinyLFU did not admit
+
+    private static class Entry<V> {
+        final V value;
+        final long bytes;
+        final long version;     //model version the value was computed against
+
+        Entry(V value, long bytes, long version) {
+            this.value = value;
+            this.bytes = bytes;
+            this.version = version;
+        }
+    }
+
+    /**
+     * One lock's worth of the cache: an access-ordered map and its own frequency sketch
+     */
+    private static class Segment<V> {
+        final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+        final FrequencySketch sketch;
+        final int maxEntries;
+        final long maxBytes;
+        long bytes = 0;
+
+        Segment(int maxEntries, long maxBytes) {
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+            this.sketch = new FrequencySketch(Math.max(16, maxEntries));
+        }
+    }
+
+    /**
+     * @param maxEntries - most entries held at once
+     * @param maxBytes - most estimated bytes held at once, keys included
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public SentenceCache(int maxEntries, long maxBytes) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be at least 1, got " + maxEntries);
+        if (maxBytes < 1) throw new IllegalArgumentException("maxBytes must be at least 1, got " + maxBytes);
+        //a power of two, so segment can mask the hash, and no more segments than entries
+        int count = Math.min(SEGMENTS, Integer.highestOneBit(maxEntries));
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            //the first segments take one more of whatever does not divide evenly
+            segments[i] = new Segment<>(maxEntries / count + (i < maxEntries % count ? 1 : 0),
+                    maxBytes / count + (i < maxBytes % count ? 1 : 0));
+        }
+    }
+
+    /**
+     * Looks the key up and counts the request towards its frequency
+     * @param modelVersion - version of the model the caller decodes with
+     * @return - the cached value computed against that model version, null on a miss
+     */
+    public V get(String key, long modelVersion) {
+        Segment<V> segment = segment(key);
+        Entry<V> entry;
+        synchronized (segment) {
+            segment.sketch.increment(key);
+            entry = segment.entries.get(key);
+        }
+        //an entry of another version can still be there while invalidate works through the segments
+        if (entry == null || entry.version != modelVersion) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    /**
+     * Offers a value computed against the given model version; ignored if the model has changed since
+     * @param bytes - estimated size of the value
+     */
+    public void put(String key, V value, long bytes, long modelVersion) {
+        long entryBytes = ENTRY_OVERHEAD + 2L * key.length() + bytes;
+        Segment<V> segment = segment(key);
+        synchronized (segment) {
+            if (modelVersion != version) return;
+            if (entryBytes > segment.maxBytes) {
+                rejections.increment();
+                return;
+            }
+            Entry<V> old = segment.entries.remove(key);
+            if (old != null) segment.bytes -= old.bytes;
+            Iterator<Map.Entry<String, Entry<V>>> lru = segment.entries.entrySet().iterator();
+            //make room, as long as every victim is requested less often than the newcomer
+            int frequency = segment.sketch.frequency(key);
+            while (segment.entries.size() >= segment.maxEntries || segment.bytes + entryBytes > segment.maxBytes) {
+                Map.Entry<String, Entry<V>> victim = lru.next();
+                if (old == null && segment.sketch.frequency(victim.getKey()) >= frequency) {
+                    rejections.increment();
+                    return;
+                }
+                segment.bytes -= victim.getValue().bytes;
+                lru.remove();
+                evictions.increment();
+            }
+            segment.entries.put(key, new Entry<>(value, entryBytes, modelVersion));
+            segment.bytes += entryBytes;
+        }
+    }
+
+    /**
+     * Drops every entry and from now on only accepts values computed against the given model version
+     */
+    public void invalidate(long modelVersion) {
+        for (Segment<V> segment: segments) {
+            synchronized (segment) {
+                version = modelVersion;
+                segment.entries.clear();
+                segment.bytes = 0;
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    /**
+     * @return - hits / lookups, 0 before the first lookup
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long lookups = hitCount + misses.sum();
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment: segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return - estimated bytes held
+     */
+    public long bytes() {
+        long bytes = 0;
+        for (Segment<V> segment: segments) {
+            synchronized (segment) {
+                bytes += segment.bytes;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return - "name value" lines in the format of TaggingServer.stats
+     */
+    public String stats() {
+        return "entries " + size() + "\n"
+                + "bytes " + bytes() + "\n"
+                + "hits " + getHits() + "\n"
+                + "misses " + getMisses() + "\n"
+                + "hit_rate " + getHitRate() + "\n"
+                + "evictions " + getEvictions() + "\n"
+                + "rejections " + getRejections() + "\n";
+    }
+
+    private Segment<V> segment(String key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+
+    /**
+     * Count-min sketch of 4 rows of 4-bit-like saturating counters (capped at 15). After sampleSize increments
+     * every counter is halved, so the sketch tracks recent popularity rather than all-time counts
+     */
+    private static class FrequencySketch {
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[][] rows;
+        private final int mask;
+        private final int sampleSize;
+        private int increments = 0;
+
+        FrequencySketch(int capacity) {
+            int width = Integer.highestOneBit(Math.max(16, capacity * 2) - 1) << 1;
+            rows = new byte[SEEDS.length][width];
+            mask = width - 1;
+            sampleSize = 10 * capacity;
+        }
+
+        void increment(String key) {
+            int hash = key.hashCode();
+            for (int r = 0; r < rows.length; r++) {
+                int index = index(hash, r);
+                if (rows[r][index] < MAX_COUNT) rows[r][index]++;
+            }
+            if (++increments >= sampleSize) {
+                for (byte[] row: rows) {
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] >>= 1;
+                    }
+                }
+                increments /= 2;
+            }
+        }
+
+        int frequency(String key) {
+            int hash = key.hashCode();
+            int frequency = MAX_COUNT;
+            for (int r = 0; r < rows.length; r++) {
+                frequency = Math.min(frequency, rows[r][index(hash, r)]);
+            }
+            return frequency;
+        }
+
+        private int index(int hash, int row) {
+            int mixed = hash * SEEDS[row];
+            return (mixed ^ (mixed >>> 15)) & mask;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts transitions and emissions of a paired tags/sentences corpus on several threads.
+ * The files are read in shards of SHARD_LINES line pairs, each worker thread counts its shards by id into its own
+ * IdCounts, and the per-worker counts are merged once at the end, before anything is normalized
+ */
+public class ShardedTrainer {
+    private static final int SHARD_LINES = 2048;    //line pairs per counting task
+
+    private final int workers;
+    private CountTable transitionCounts;    //POS -> (POS -> count)
+    private CountTable emissionCounts;      //POS -> (observedWord -> count)
+    private CountTable trigramCounts;       //"POS POS" -> (POS -> count)
+
+    public ShardedTrainer(int workers) {
+        if (workers < 1) throw new IllegalArgumentException("workers must be at least 1, got " + workers);
+        this.workers = workers;
+    }
+
+    /**
+     * Adds the counts of one tagged line to the tables, exactly as POSTagger.train counts it;
+     * tags and words must have the same length
+     */
+    public static void countLine(String[] tags, String[] words, CountTable transitions, CountTable emissions) {
+        for (int i = 0; i < tags.length; i++) {
+            transitions.increment(i == 0 ? "#" : tags[i-1], tags[i]);
+            emissions.increment(tags[i], words[i]);
+        }
+    }
+
+    /**
+     * Adds the tag trigrams of one line, with # padding the start: "# #" -> tags[0], "# tags[0]" -> tags[1], ...
+     */
+    public static void countTrigrams(String[] tags, CountTable trigrams) {
+        for (int i = 0; i < tags.length; i++) {
+            String prev2 = i >= 2 ? tags[i-2] : "#";
+            String prev1 = i >= 1 ? tags[i-1] : "#";
+            trigrams.increment(prev2 + " " + prev1, tags[i]);
+        }
+    }
+
+    /**
+     * Counts a corpus on the calling thread without building a String per token: both files are memory-mapped and
+     * read with CorpusReader, tags and words are counted by id, and only the distinct keys are turned into Strings
+     * at the end. Line pairs whose tag and word counts differ are skipped and reported on System.err
+     * @return - {transitions, emissions, trigrams}, counted like countLine and countTrigrams
+     * @throws IOException - if either file cannot be opened or read, or has more than IdCounts.MAX_ID distinct tags
+     */
+    public static CountTable[] countCorpus(String tagsFileName, String sentencesFileName) throws IOException {
+        CorpusCounts counts = new CorpusCounts();
+        try (CorpusReader tagsInput = new CorpusReader(tagsFileName);
+             CorpusReader sentencesInput = new CorpusReader(sentencesFileName)) {
+            int stoppedAt = counts.count(tagsInput, sentencesInput, tagsFileName);
+            if (stoppedAt >= 0) reportMismatch(stoppedAt);
+        }
+        counts.reportSkipped();
+        return counts.toCountTables();
+    }
+
+    /**
+     * Counts the given files: both are split into ranges of SHARD_LINES line pairs, each worker thread reads its
+     * ranges with its own pair of CorpusReaders and counts them by id into its own CorpusCounts, and the per-worker
+     * counts are merged by id before any String is built
+     * @return - true if both files were read; the counts are then available through the getters
+     */
+    public boolean train(String tagsFileName, String sentencesFileName) {
+        long[] tagStarts;
+        long[] sentenceStarts;
+        try {
+            tagStarts = CorpusReader.lineStarts(tagsFileName, SHARD_LINES);
+            sentenceStarts = CorpusReader.lineStarts(sentencesFileName, SHARD_LINES);
+        }
+        catch (NoSuchFileException e) {
+            System.err.println("Cannot open file. \n" + e.getMessage());
+            return false;
+        }
+        catch (IOException e) {
+            System.err.println("IO error while reading.\n" + e.getMessage());
+            return false;
+        }
+
+        //every worker thread counts into its own vocabularies and tables
+        List<CorpusCounts> workerCounts = Collections.synchronizedList(new ArrayList<CorpusCounts>());
+        ThreadLocal<CorpusCounts> localCounts = ThreadLocal.withInitial(() -> {
+            CorpusCounts counts = new CorpusCounts();
+            workerCounts.add(counts);
+            return counts;
+        });
+        int shards = Math.min(tagStarts.length, sentenceStarts.length) - 1;
+        AtomicInteger stoppedAt = new AtomicInteger(-1);    //line the shorter file ended at, if they differ
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        CorpusCounts merged = new CorpusCounts();
+        try {
+            List<Future<?>> pending = new ArrayList<>(shards);
+            for (int s = 0; s < shards; s++) {
+                int shard = s;
+                pending.add(pool.submit(() -> {
+                    int linesBefore = shard * SHARD_LINES;
+                    try (CorpusReader tagsInput = new CorpusReader(tagsFileName,
+                                tagStarts[shard], tagStarts[shard + 1], linesBefore);
+                         CorpusReader sentencesInput = new CorpusReader(sentencesFileName,
+                                sentenceStarts[shard], sentenceStarts[shard + 1], linesBefore)) {
+                        int stopped = localCounts.get().count(tagsInput, sentencesInput, tagsFileName);
+                        if (stopped >= 0) stoppedAt.set(stopped);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future: pending) {
+                await(future);
+            }
+            //a file that ends exactly at a shard boundary leaves no line over in the last common shard
+            if (stoppedAt.get() < 0 && tagStarts.length != sentenceStarts.length) {
+                stoppedAt.set(shards * SHARD_LINES);
+            }
+            for (CorpusCounts counts: workerCounts) {
+                merged.merge(counts, tagsFileName);
+            }
+        }
+        catch (NoSuchFileException e) {
+            System.err.println("Cannot open file. \n" + e.getMessage());
+            return false;
+        }
+        catch (IOException e) {
+            System.err.println("IO error while reading.\n" + e.getMessage());
+            return false;
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        if (stoppedAt.get() >= 0) reportMismatch(stoppedAt.get());
+        merged.reportSkipped();
+
+        CountTable[] tables = merged.toCountTables();
+        transitionCounts = tables[0];
+        emissionCounts = tables[1];
+        trigramCounts = tables[2];
+        return true;
+    }
+
+    public CountTable getTransitionCounts() {
+        return transitionCounts;
+    }
+
+    public CountTable getEmissionCounts() {
+        return emissionCounts;
+    }
+
+    public CountTable getTrigramCounts() {
+        return trigramCounts;
+    }
+
+    private static void reportMismatch(int line) {
+        System.err.println("Tags and sentences files have different numbers of lines; stopped after line " + line);
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while training", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Id-keyed counts of part of a corpus, with the vocabularies the ids belong to; not thread safe
+     */
+    private static class CorpusCounts {
+        final ByteVocabulary tagIds = new ByteVocabulary();
+        final ByteVocabulary wordIds = new ByteVocabulary();
+        final int start = tagIds.add("#");
+        final IdCounts transitions = new IdCounts();     //(prev, tag)
+        final IdCounts emissions = new IdCounts();       //(tag, word)
+        final IdCounts trigrams = new IdCounts();        //(prev2, prev1, tag)
+        int skipped = 0;
+        int firstSkipped = 0;
+
+        /**
+         * Counts the line pairs of the two readers
+         * @return - line number the shorter reader ended at if one has lines left over, else -1
+         * @throws IOException - if either file cannot be read, or has more than IdCounts.MAX_ID distinct tags
+         */
+        int count(CorpusReader tagsInput, CorpusReader sentencesInput, String tagsFileName) throws IOException {
+            boolean moreTags;
+            while ((moreTags = tagsInput.nextLine(false)) && sentencesInput.nextLine(true)) {
+                int length = tagsInput.tokenCount();
+                if (sentencesInput.tokenCount() != length) {
+                    if (skipped++ == 0 || tagsInput.getLineNumber() < firstSkipped) {
+                        firstSkipped = tagsInput.getLineNumber();
+                    }
+                    continue;
+                }
+                int prev2 = start;
+                int prev1 = start;
+                for (int i = 0; i < length; i++) {
+                    int tag = tagsInput.addToken(i, tagIds);
+                    if (tag > IdCounts.MAX_ID) {
+                        throw new IOException("More than " + IdCounts.MAX_ID + " distinct tags in " + tagsFileName
+                                + " (line " + tagsInput.getLineNumber() + ")");
+                    }
+                    transitions.increment(IdCounts.pair(prev1, tag));
+                    emissions.increment(IdCounts.pair(tag, sentencesInput.addToken(i, wordIds)));
+                    trigrams.increment(IdCounts.key(prev2, prev1, tag));
+                    prev2 = prev1;
+                    prev1 = tag;
+                }
+                TaggerMetrics.TRAIN_SENTENCES.increment();
+                TaggerMetrics.TRAIN_TOKENS.add(length);
+            }
+            //stopped on a tag line without a sentence, or with sentences left over
+            if (moreTags || sentencesInput.nextLine(false)) {
+                return Math.min(tagsInput.getLineNumber(), sentencesInput.getLineNumber());
+            }
+            return -1;
+        }
+
+        /**
+         * Adds the other counts to these, translating its tag and word ids to ids of these vocabularies
+         * @throws IOException - if the merged tags are more than IdCounts.MAX_ID
+         */
+        void merge(CorpusCounts other, String tagsFileName) throws IOException {
+            int[] tagMap = new int[other.tagIds.size()];
+            for (int t = 0; t < tagMap.length; t++) {
+                tagMap[t] = tagIds.add(other.tagIds, t);
+            }
+            if (tagIds.size() - 1 > IdCounts.MAX_ID) {
+                throw new IOException("More than " + IdCounts.MAX_ID + " distinct tags in " + tagsFileName);
+            }
+            int[] wordMap = new int[other.wordIds.size()];
+            for (int w = 0; w < wordMap.length; w++) {
+                wordMap[w] = wordIds.add(other.wordIds, w);
+            }
+            other.transitions.forEach((key, count) -> transitions.add(
+                    IdCounts.pair(tagMap[IdCounts.first(key)], tagMap[IdCounts.last(key)]), count));
+            other.emissions.forEach((key, count) -> emissions.add(
+                    IdCounts.pair(tagMap[IdCounts.first(key)], wordMap[IdCounts.last(key)]), count));
+            other.trigrams.forEach((key, count) -> trigrams.add(IdCounts.key(tagMap[IdCounts.first(key)],
+                    tagMap[IdCounts.second(key)], tagMap[IdCounts.third(key)]), count));
+            if (other.skipped > 0 && (skipped == 0 || other.firstSkipped < firstSkipped)) {
+                firstSkipped = other.firstSkipped;
+            }
+            skipped += other.skipped;
+        }
+
+        void reportSkipped() {
+            if (skipped > 0) {
+                System.err.println("Skipped " + skipped + " lines whose tag and word counts differ (first at line "
+                        + firstSkipped + ")");
+            }
+        }
+
+        /**
+         * @return - {transitions, emissions, trigrams} keyed by Strings, as countLine and countTrigrams count them
+         */
+        CountTable[] toCountTables() {
+            CountTable transitionCounts = new CountTable();
+            CountTable emissionCounts = new CountTable();
+            CountTable trigramCounts = new CountTable();
+            transitions.forEach((key, count) -> transitionCounts.add(
+                    tagIds.word(IdCounts.first(key)), tagIds.word(IdCounts.last(key)), count));
+            emissions.forEach((key, count) -> emissionCounts.add(
+                    tagIds.word(IdCounts.first(key)), wordIds.word(IdCounts.last(key)), count));
+            trigrams.forEach((key, count) -> trigramCounts.add(
+                    tagIds.word(IdCounts.first(key)) + " " + tagIds.word(IdCounts.second(key)),
+                    tagIds.word(IdCounts.third(key)), count));
+            return new CountTable[]{transitionCounts, emissionCounts, trigramCounts};
+        }
+    }
+}
@@ -0,0 +1,165 @@
+import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Bounded-memory tagging pipeline: reader -> tokenizer -> Viterbi -> writer.
+ * Stages run on their own threads and hand sentences over through bounded queues, so a slow writer holds back the
+ * reader and memory use depends on the queue capacity, not on the size of the input
+ */
+public class StreamingTagger {
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;    //sentences buffered between two stages
+    private static final Sentence END = new Sentence(null);    //marks the end of the input in every queue
+
+    private final CompiledModel model;
+    private final int queueCapacity;
+
+    public StreamingTagger(CompiledModel model) {
+        this(model, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public StreamingTagger(CompiledModel model, int queueCapacity) {
+        if (queueCapacity < 1) throw new IllegalArgumentException("queueCapacity must be at least 1, got " + queueCapacity);
+        this.model = model;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * One line of input as it moves down the pipeline
+     */
+    private static class Sentence {
+        final String line;
+        String[] words;         //as written, used for the output
+        String[] lowerWords;    //what the model is queried with
+        String[] tags;
+
+        Sentence(String line) {
+            this.line = line;
+        }
+    }
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    /**
+     * Tags every line of the input and writes it to the output as "word/TAG" tokens separated by spaces,
+     * one output line per input line, as soon as each line is decoded; a word no tag can reach is written bare
+     * @throws IOException - if reading or writing fails, or a stage fails with any other Exception
+     */
+    public void tag(BufferedReader input, Writer output) throws IOException {
+        BlockingQueue<Sentence> read = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Sentence> tokenized = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Sentence> decoded = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread[] stages = new Thread[3];
+        stages[0] = startStage("tagger-reader", failure, stages, () -> {
+            String line;
+            while ((line = input.readLine()) != null) {
+                read.put(new Sentence(line));
+            }
+            read.put(END);
+        });
+        stages[1] = startStage("tagger-tokenizer", failure, stages, () -> {
+            Sentence sentence;
+            while ((sentence = read.take()) != END) {
+                sentence.words = Tokenizer.tokens(sentence.line);
+                sentence.lowerWords = Tokenizer.lowerTokens(sentence.line);
+                tokenized.put(sentence);
+            }
+            tokenized.put(END);
+        });
+        stages[2] = startStage("tagger-viterbi", failure, stages, () -> {
+            DecoderSession session = new DecoderSession(model);
+            Sentence sentence;
+            while ((sentence = tokenized.take()) != END) {
+                sentence.tags = new String[sentence.lowerWords.length];
+                session.decode(sentence.lowerWords, sentence.lowerWords.length, sentence.tags);
+                decoded.put(sentence);
+            }
+            decoded.put(END);
+        });
+
+        //write on the calling thread so IO errors surface here
+        try {
+            while (true) {
+                Sentence sentence = decoded.poll(100, TimeUnit.MILLISECONDS);
+                if (sentence == END) break;
+                if (sentence == null) {
+                    if (failure.get() != null) break;
+                    continue;
+                }
+                for (int i = 0; i < sentence.tags.length; i++) {
+                    if (i > 0) output.write(' ');
+                    output.write(sentence.words[i]);
+                    if (sentence.tags[i] == null) continue;
+                    output.write('/');
+                    output.write(sentence.tags[i]);
+                }
+                output.write('\n');
+            }
+            output.flush();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing tags");
+        }
+        finally {
+            for (Thread stage: stages) {
+                stage.interrupt();
+            }
+        }
+
+        Throwable e = failure.get();
+        if (e instanceof IOException) throw (IOException) e;
+        if (e instanceof Error) throw (Error) e;
+        if (e != null) throw new IOException("Tagging pipeline failed", e);
+    }
+
+    /**
+     * Tags the sentences file into the output file
+     * @return - true if the whole file was tagged
+     */
+    public boolean tagFile(String sentencesFileName, String outputFileName) {
+        try (BufferedReader input = new BufferedReader(new FileReader(sentencesFileName));
+             Writer output = new BufferedWriter(new FileWriter(outputFileName))) {
+            tag(input, output);
+            return true;
+        }
+        catch (FileNotFoundException e) {
+            System.err.println("Cannot open file. \n" + e.getMessage());
+        }
+        catch (IOException e) {
+            System.err.println("IO error while tagging.\n" + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Starts a daemon thread for one stage; the first failure, Errors included, is recorded and stops every stage,
+     * so the writer never waits for a stage that has died
+     */
+    private static Thread startStage(String name, AtomicReference<Throwable> failure, Thread[] stages, Stage stage) {
+        Thread thread = new Thread(() -> {
+            try {
+                stage.run();
+            }
+            catch (InterruptedException e) {
+                //another stage failed or the writer finished; nothing left to do
+            }
+            catch (Throwable e) {
+                if (failure.compareAndSet(null, e)) {
+                    for (Thread other: stages) {
+                        if (other != null && other != Thread.currentThread()) other.interrupt();
+                    }
+                }
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,118 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Generates paired tags/sentences files in the same format as inputs/texts, so training and decoding can be
+ * benchmarked without the real corpora. Tags follow a random sparse Markov chain and every tag draws its words
+ * from its own Zipf-distributed vocabulary, plus a pool of words shared by all tags to make decoding ambiguous
+ */
+public class SyntheticCorpus {
+    private final Random random;
+    private final int numTags;
+    private final int[][] successors;       //tag -> tags that may follow it
+    private final String[][] vocabulary;    //tag -> words it emits, most frequent first
+    private final double[] zipfCumulative;  //cumulative Zipf weights over vocabulary ranks
+    private final String[] sharedWords;
+
+    /**
+     * @param numTags - size of the tagset (the Brown tagset used here has a few dozen tags)
+     * @param wordsPerTag - distinct words each tag emits
+     * @param seed - same seed, same corpus
+     */
+    public SyntheticCorpus(int numTags, int wordsPerTag, long seed) {
+        this(numTags, wordsPerTag, seed, seed);
+    }
+
+    /**
+     * @param languageSeed - seed of the tag chain and vocabularies; corpora sharing it come from the same language,
+     *                     so one can be the training set and another the test set
+     * @param sampleSeed - seed of the sentences drawn from that language
+     */
+    public SyntheticCorpus(int numTags, int wordsPerTag, long languageSeed, long sampleSeed) {
+        this.random = new Random(languageSeed);
+        this.numTags = numTags;
+
+        successors = new int[numTags][];
+        for (int t = 0; t < numTags; t++) {
+            int count = 1 + random.nextInt(Math.max(1, numTags / 3));
+            successors[t] = new int[count];
+            for (int i = 0; i < count; i++) {
+                successors[t][i] = random.nextInt(numTags);
+            }
+        }
+
+        vocabulary = new String[numTags][wordsPerTag];
+        for (int t = 0; t < numTags; t++) {
+            for (int w = 0; w < wordsPerTag; w++) {
+                vocabulary[t][w] = "t" + t + "w" + w;
+            }
+        }
+        zipfCumulative = new double[wordsPerTag];
+        double total = 0;
+        for (int w = 0; w < wordsPerTag; w++) {
+            total += 1.0 / (w + 1);
+            zipfCumulative[w] = total;
+        }
+        sharedWords = new String[Math.max(1, wordsPerTag / 10)];
+        for (int w = 0; w < sharedWords.length; w++) {
+            sharedWords[w] = "shared" + w;
+        }
+        random.setSeed(sampleSeed);
+    }
+
+    /**
+     * @return - {tag line, sentence line} for one random sentence of the given length
+     */
+    public String[] sentence(int length) {
+        StringBuilder tags = new StringBuilder();
+        StringBuilder words = new StringBuilder();
+        int tag = random.nextInt(numTags);
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                tags.append(' ');
+                words.append(' ');
+                tag = successors[tag][random.nextInt(successors[tag].length)];
+            }
+            tags.append("T").append(tag);
+            if (random.nextInt(10) == 0) {
+                words.append(sharedWords[random.nextInt(sharedWords.length)]);
+            }
+            else {
+                words.append(vocabulary[tag][zipfRank()]);
+            }
+        }
+        return new String[]{tags.toString(), words.toString()};
+    }
+
+    /**
+     * Writes a corpus of the given number of sentences, with lengths spread uniformly over 1..maxLength
+     * @throws IOException - if either file cannot be written
+     */
+    public void write(String tagsFileName, String sentencesFileName, int sentences, int maxLength) throws IOException {
+        try (Writer tagsOutput = new BufferedWriter(new FileWriter(tagsFileName));
+             Writer sentencesOutput = new BufferedWriter(new FileWriter(sentencesFileName))) {
+            for (int s = 0; s < sentences; s++) {
+                String[] sentence = sentence(1 + random.nextInt(maxLength));
+                tagsOutput.write(sentence[0]);
+                tagsOutput.write('\n');
+                sentencesOutput.write(sentence[1]);
+                sentencesOutput.write('\n');
+            }
+        }
+    }
+
+    private int zipfRank() {
+        double target = random.nextDouble() * zipfCumulative[zipfCumulative.length - 1];
+        int low = 0;
+        int high = zipfCumulative.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (zipfCumulative[mid] < target) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+}
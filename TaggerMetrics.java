@@ -0,0 +1,279 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide metrics registry for training and decoding.
+ * Counters are LongAdders (striped, so threads tagging in parallel do not fight over one cache line) and
+ * distributions are LatencyHistograms. Every record first checks one volatile flag, so with metrics switched off
+ * (setEnabled(false), or -Dtagger.metrics=false) the hot paths pay a read and a branch and never call nanoTime.
+ * Sampling the bytes each viterbi call allocates costs two ThreadMXBean reads per call, so it has its own flag and
+ * is off unless setAllocationSampling(true) or -Dtagger.metrics.allocation=true.
+ * Snapshots export as "name value" lines (toText) or as one JSON object (toJson)
+ */
+public class TaggerMetrics {
+    private static volatile boolean enabled = !"false".equals(System.getProperty("tagger.metrics"));
+    private static volatile boolean allocationSampling = "true".equals(System.getProperty("tagger.metrics.allocation"));
+
+    private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    //training
+    public static final Histogram TRAIN_TIME = histogram("train.time_ns");
+    public static final Counter TRAIN_SENTENCES = counter("train.sentences");
+    public static final Counter TRAIN_TOKENS = counter("train.tokens");
+    public static final Counter UPDATES = counter("train.updates");
+
+    //decoding: POSTagger.viterbi over the maps, DecoderSession over a CompiledModel
+    public static final Decoder VITERBI = new Decoder("viterbi");
+    public static final Decoder SESSION = new Decoder("session");
+    public static final Histogram VITERBI_ALLOCATED = histogram("viterbi.allocated_bytes");
+    public static final Counter SESSION_ALLOCATED = counter("session.allocated_bytes");
+
+    //evaluation
+    public static final Histogram TEST_TIME = histogram("test.time_ns");
+    public static final Counter TEST_CORRECT = counter("test.correct");
+    public static final Counter TEST_WRONG = counter("test.wrong");
+
+    /**
+     * Monotonic count, e.g. sentences tagged
+     */
+    public static class Counter {
+        private final LongAdder adder = new LongAdder();
+
+        public void add(long n) {
+            if (enabled) adder.add(n);
+        }
+
+        public void increment() {
+            if (enabled) adder.increment();
+        }
+
+        public long get() {
+            return adder.sum();
+        }
+    }
+
+    /**
+     * Distribution of recorded values plus their exact sum; doubles as a timer through start/stop
+     */
+    public static class Histogram {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final LongAdder sum = new LongAdder();
+
+        public void record(long value) {
+            if (!enabled) return;
+            histogram.record(value);
+            sum.add(value);
+        }
+
+        /**
+         * @return - the current nanoTime to pass to stop, 0 while metrics are off
+         */
+        public long start() {
+            return enabled ? System.nanoTime() : 0;
+        }
+
+        /**
+         * Records the nanoseconds since start; does nothing if start came from a switched off registry
+         */
+        public void stop(long start) {
+            if (start != 0) record(System.nanoTime() - start);
+        }
+
+        public long getCount() {
+            return histogram.getCount();
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+    }
+
+    /**
+     * The metrics of one decoder, registered under a common prefix
+     */
+    public static class Decoder {
+        public final Histogram time;            //nanoseconds per sentence
+        public final Counter sentences;
+        public final Counter tokens;
+        public final Counter unknownWords;      //tokens no tag was seen with, scored by UNSEEN_SCORE (or the unknown word model)
+        public final Counter liveStates;        //tags reached, summed over all layers
+        public final Counter cacheHits;         //sentences answered from a cache, counted in sentences and tokens too
+        public final Counter cachedTokens;
+
+        Decoder(String prefix) {
+            time = histogram(prefix + ".time_ns");
+            sentences = counter(prefix + ".sentences");
+            tokens = counter(prefix + ".tokens");
+            unknownWords = counter(prefix + ".unknown_words");
+            liveStates = counter(prefix + ".live_states");
+            cacheHits = counter(prefix + ".cache_hits");
+            cachedTokens = counter(prefix + ".cached_tokens");
+        }
+
+        /**
+         * Records one decoded sentence
+         */
+        public void record(long start, int length, int unknown, long live) {
+            if (!enabled) return;
+            time.stop(start);
+            sentences.increment();
+            tokens.add(length);
+            unknownWords.add(unknown);
+            liveStates.add(live);
+        }
+
+        /**
+         * Records one sentence answered from a cache without decoding
+         */
+        public void recordCacheHit(long start, int length) {
+            if (!enabled) return;
+            time.stop(start);
+            sentences.increment();
+            tokens.add(length);
+            cacheHits.increment();
+            cachedTokens.add(length);
+        }
+
+        private void derive(String prefix, Map<String, Double> derived) {
+            long tokenCount = tokens.get();
+            long decodedTokens = tokenCount - cachedTokens.get();  //unknown words and live states are not known for hits
+            long nanos = time.getSum();
+            derived.put(prefix + ".tokens_per_second", nanos == 0 ? 0 : tokenCount / (nanos / 1e9));
+            derived.put(prefix + ".unknown_word_rate", decodedTokens == 0 ? 0 : (double) unknownWords.get() / decodedTokens);
+            derived.put(prefix + ".live_states_per_layer", decodedTokens == 0 ? 0 : (double) liveStates.get() / decodedTokens);
+        }
+    }
+
+    /**
+     * @return - the counter registered under name, created on first use
+     */
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    /**
+     * @return - the histogram registered under name, created on first use
+     */
+    public static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Switches recording on or off; values recorded so far are kept
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * @return - true if viterbi.allocated_bytes is being sampled (and metrics are on)
+     */
+    public static boolean isAllocationSampling() {
+        return enabled && allocationSampling;
+    }
+
+    /**
+     * Switches sampling of the bytes allocated per viterbi call on or off
+     */
+    public static void setAllocationSampling(boolean on) {
+        allocationSampling = on;
+    }
+
+    /**
+     * Zeroes every metric. Not atomic with respect to concurrent recording
+     */
+    public static void reset() {
+        for (Counter counter: counters.values()) {
+            counter.adder.reset();
+        }
+        for (Histogram histogram: histograms.values()) {
+            histogram.histogram.reset();
+            histogram.sum.reset();
+        }
+    }
+
+    /**
+     * @return - ratios computed from the counters: tokens per second of decoding time, unknown word rate and
+     * average live states per layer for each decoder
+     */
+    private static Map<String, Double> derived() {
+        Map<String, Double> derived = new TreeMap<>();
+        VITERBI.derive("viterbi", derived);
+        SESSION.derive("session", derived);
+        return derived;
+    }
+
+    /**
+     * @return - one "name value" line per counter, histogram statistic and derived ratio, sorted by name
+     */
+    public static String toText() {
+        StringBuilder text = new StringBuilder();
+        text.append("enabled ").append(enabled).append('\n');
+        text.append("allocation_sampling ").append(allocationSampling).append('\n');
+        for (Map.Entry<String, Counter> entry: new TreeMap<>(counters).entrySet()) {
+            text.append(entry.getKey()).append(' ').append(entry.getValue().get()).append('\n');
+        }
+        for (Map.Entry<String, Histogram> entry: new TreeMap<>(histograms).entrySet()) {
+            Histogram histogram = entry.getValue();
+            LatencyHistogram values = histogram.histogram;
+            String name = entry.getKey();
+            text.append(name).append(".count ").append(histogram.getCount()).append('\n');
+            text.append(name).append(".sum ").append(histogram.getSum()).append('\n');
+            text.append(name).append(".mean ").append(values.getMean()).append('\n');
+            text.append(name).append(".p50 ").append(values.getPercentile(50)).append('\n');
+            text.append(name).append(".p99 ").append(values.getPercentile(99)).append('\n');
+            text.append(name).append(".max ").append(values.getPercentile(100)).append('\n');
+        }
+        for (Map.Entry<String, Double> entry: derived().entrySet()) {
+            text.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return - the same snapshot as toText as a JSON object; each histogram is a nested object
+     */
+    public static String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"enabled\":").append(enabled);
+        json.append(",\"allocation_sampling\":").append(allocationSampling);
+        for (Map.Entry<String, Counter> entry: new TreeMap<>(counters).entrySet()) {
+            json.append(",\"").append(entry.getKey()).append("\":").append(entry.getValue().get());
+        }
+        for (Map.Entry<String, Histogram> entry: new TreeMap<>(histograms).entrySet()) {
+            Histogram histogram = entry.getValue();
+            LatencyHistogram values = histogram.histogram;
+            json.append(",\"").append(entry.getKey()).append("\":{")
+                    .append("\"count\":").append(histogram.getCount())
+                    .append(",\"sum\":").append(histogram.getSum())
+                    .append(",\"mean\":").append(jsonNumber(values.getMean()))
+                    .append(",\"p50\":").append(values.getPercentile(50))
+                    .append(",\"p99\":").append(values.getPercentile(99))
+                    .append(",\"max\":").append(values.getPercentile(100))
+                    .append('}');
+        }
+        for (Map.Entry<String, Double> entry: derived().entrySet()) {
+            json.append(",\"").append(entry.getKey()).append("\":").append(jsonNumber(entry.getValue()));
+        }
+        return json.append("}").toString();
+    }
+
+    /**
+     * JSON has no NaN or Infinity
+     */
+    private static String jsonNumber(double value) {
+        return Double.isFinite(value) ? Double.toString(value) : "null";
+    }
+}
@@ -0,0 +1,69 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load generator for TaggingServer: several client threads send single-sentence requests taken from a sentences
+ * file, then the client prints its own throughput and latency percentiles followed by the server's /stats
+ * Run with: java TaggingLoadClient port sentencesFile [threads] [requestsPerThread]
+ */
+public class TaggingLoadClient {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: java TaggingLoadClient port sentencesFile [threads] [requestsPerThread]");
+            return;
+        }
+        String base = "http://localhost:" + args[0];
+        List<String> sentences = Files.readAllLines(Paths.get(args[1]));
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int requestsPerThread = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicLong failures = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            pool.execute(() -> {
+                for (int r = 0; r < requestsPerThread; r++) {
+                    String sentence = sentences.get((offset * requestsPerThread + r) % sentences.size());
+                    HttpRequest request = HttpRequest.newBuilder(URI.create(base + "/tag"))
+                            .POST(HttpRequest.BodyPublishers.ofString(sentence)).build();
+                    long sent = System.nanoTime();
+                    try {
+                        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                        if (response.statusCode() != 200) failures.incrementAndGet();
+                    }
+                    catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    latency.record(System.nanoTime() - sent);
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.HOURS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println("requests " + latency.getCount() + " failures " + failures.get()
+                + " throughput " + latency.getCount() / seconds + " req/s");
+        System.out.println("client p50_ms " + latency.getPercentile(50) / 1e6 + " p99_ms " + latency.getPercentile(99) / 1e6);
+        HttpResponse<String> stats = client.send(HttpRequest.newBuilder(URI.create(base + "/stats")).build(),
+                HttpResponse.BodyHandlers.ofString());
+        System.out.print(stats.body());
+    }
+}
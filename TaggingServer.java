@@ -0,0 +1,311 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Long-running local HTTP tagging service over one loaded CompiledModel (OffHeapModel.getModel() for vocabularies
+ * too large to keep on the heap).
+ *   POST /tag    body: one sentence per line; response: one line of "word/TAG" tokens per sentence
+ *   GET  /stats  request, sentence, batch, rejected and failed counts, and p50/p99 latency of every /tag response,
+ *                overall and by status
+ *   GET  /metrics  TaggerMetrics snapshot as JSON (as text with ?format=text)
+ * Connections are handled on virtual threads when the JVM has them (a cached pool otherwise). Handlers only
+ * queue their sentences; decoder threads drain whatever has queued up into one micro-batch, so concurrent small
+ * requests are decoded together without any added wait when the server is idle. At most MAX_QUEUED sentences wait
+ * at a time: a request that does not fit is answered 503, and one whose decoding fails 500.
+ * Responses are small, so run with -Dsun.net.httpserver.nodelay=true (main sets it) or each one can wait ~40 ms on
+ * Nagle's algorithm and the client's delayed ACK; the JDK reads it once, before the first HttpServer is created
+ */
+public class TaggingServer {
+    private static final int MAX_BATCH = 64;    //sentences per micro-batch
+    private static final int MAX_QUEUED = 16 * 1024;    //sentences waiting for a decoder thread
+
+    private final CompiledModel model;
+    private final HttpServer server;
+    private final ExecutorService connections;
+    private final BlockingQueue<Job> jobs = new LinkedBlockingQueue<>(MAX_QUEUED);
+    private final Thread[] decoders;
+    private volatile boolean running = false;
+
+    private final LatencyHistogram latency = new LatencyHistogram();   //per /tag response, nanoseconds
+    private final ConcurrentMap<Integer, LatencyHistogram> latencyByStatus = new ConcurrentSkipListMap<>();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder sentences = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder rejected = new LongAdder();     //requests answered 503 because the queue was full
+    private final LongAdder failed = new LongAdder();       //requests answered 500 because decoding threw
+
+    /**
+     * One sentence waiting to be decoded; done counts down the sentences left in its request, whether or not
+     * decoding succeeded
+     */
+    private static class Job {
+        final String[] words;
+        final String[] lowerWords;
+        final String[] tags;
+        final CountDownLatch done;
+        boolean decoded;            //set by the decoder thread before counting down, false if decoding threw
+        RuntimeException error;
+
+        Job(String line, CountDownLatch done) {
+            this.words = Tokenizer.tokens(line);
+            this.lowerWords = Tokenizer.lowerTokens(line);
+            this.tags = new String[lowerWords.length];
+            this.done = done;
+        }
+    }
+
+    /**
+     * @param port - port to listen on at the loopback address, 0 for any free port
+     * @param decoderThreads - threads decoding micro-batches, each with its own DecoderSession
+     */
+    public TaggingServer(CompiledModel model, int port, int decoderThreads) throws IOException {
+        if (decoderThreads < 1) throw new IllegalArgumentException("decoderThreads must be at least 1, got " + decoderThreads);
+        this.model = model;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.connections = connectionExecutor();
+        server.setExecutor(connections);
+        server.createContext("/tag", this::handleTag);
+        server.createContext("/stats", this::handleStats);
+        server.createContext("/metrics", this::handleMetrics);
+        decoders = new Thread[decoderThreads];
+        for (int i = 0; i < decoderThreads; i++) {
+            decoders[i] = new Thread(this::decodeLoop, "tagger-decoder-" + i);
+            decoders[i].setDaemon(true);
+        }
+    }
+
+    public void start() {
+        running = true;
+        for (Thread decoder: decoders) {
+            decoder.start();
+        }
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        running = false;
+        for (Thread decoder: decoders) {
+            decoder.interrupt();
+        }
+        connections.shutdownNow();
+    }
+
+    /**
+     * @return - the port the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return - the statistics served at /stats
+     */
+    public String stats() {
+        long batchCount = batches.sum();
+        return "requests " + requests.sum() + "\n"
+                + "sentences " + sentences.sum() + "\n"
+                + "batches " + batchCount + "\n"
+                + "rejected " + rejected.sum() + "\n"
+                + "failed " + failed.sum() + "\n"
+                + "avg_batch_size " + (batchCount == 0 ? 0 : (double) sentences.sum() / batchCount) + "\n"
+                + "p50_ms " + latency.getPercentile(50) / 1e6 + "\n"
+                + "p99_ms " + latency.getPercentile(99) / 1e6 + "\n"
+                + statusStats();
+    }
+
+    /**
+     * @return - "status_<code>_..." lines: response count and p50/p99 latency of every status answered so far
+     */
+    private String statusStats() {
+        StringBuilder stats = new StringBuilder();
+        for (Map.Entry<Integer, LatencyHistogram> status: latencyByStatus.entrySet()) {
+            String prefix = "status_" + status.getKey() + "_";
+            LatencyHistogram histogram = status.getValue();
+            stats.append(prefix).append("responses ").append(histogram.getCount()).append('\n')
+                    .append(prefix).append("p50_ms ").append(histogram.getPercentile(50) / 1e6).append('\n')
+                    .append(prefix).append("p99_ms ").append(histogram.getPercentile(99) / 1e6).append('\n');
+        }
+        return stats.toString();
+    }
+
+    /**
+     * Times every response, whatever its status
+     */
+    private void handleTag(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        int status = tag(exchange);
+        long elapsed = System.nanoTime() - start;
+        latency.record(elapsed);
+        latencyByStatus.computeIfAbsent(status, s -> new LatencyHistogram()).record(elapsed);
+    }
+
+    /**
+     * @return - the status the request was answered with
+     */
+    private int tag(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                return respond(exchange, 405, "Use POST\n");
+            }
+            String body;
+            try (InputStream input = exchange.getRequestBody()) {
+                body = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            String[] lines = body.split("\n");
+            if (lines.length > MAX_QUEUED) {
+                return respond(exchange, 413, "At most " + MAX_QUEUED + " sentences per request\n");
+            }
+            CountDownLatch done = new CountDownLatch(lines.length);
+            List<Job> requestJobs = new ArrayList<>(lines.length);
+            for (String line: lines) {
+                Job job = new Job(line, done);
+                requestJobs.add(job);
+                if (!jobs.offer(job)) {
+                    //sentences already queued are still decoded, but nobody waits for them
+                    rejected.increment();
+                    return respond(exchange, 503, "Too many sentences queued, retry later\n");
+                }
+            }
+            done.await();
+            for (Job job: requestJobs) {
+                if (!job.decoded) {
+                    failed.increment();
+                    return respond(exchange, 500, "Cannot tag sentence: " + job.error + "\n");
+                }
+            }
+
+            StringBuilder response = new StringBuilder();
+            for (Job job: requestJobs) {
+                for (int i = 0; i < job.tags.length; i++) {
+                    if (i > 0) response.append(' ');
+                    response.append(job.words[i]).append('/').append(job.tags[i]);
+                }
+                response.append('\n');
+            }
+            int status = respond(exchange, 200, response.toString());
+            requests.increment();
+            return status;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return respond(exchange, 503, "Server is shutting down\n");
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        respond(exchange, 200, stats());
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        if (query != null && query.contains("format=text")) {
+            respond(exchange, 200, TaggerMetrics.toText());
+        }
+        else {
+            respond(exchange, 200, TaggerMetrics.toJson(), "application/json");
+        }
+    }
+
+    private static int respond(HttpExchange exchange, int status, String body) throws IOException {
+        return respond(exchange, status, body, "text/plain");
+    }
+
+    /**
+     * @return - status, for the caller's bookkeeping
+     */
+    private static int respond(HttpExchange exchange, int status, String body, String contentType) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+        return status;
+    }
+
+    /**
+     * Takes the next sentence, drains whatever else is already queued into the same batch, and decodes the batch
+     */
+    private void decodeLoop() {
+        DecoderSession session = new DecoderSession(model);
+        List<Job> batch = new ArrayList<>(MAX_BATCH);
+        while (running) {
+            try {
+                batch.add(jobs.take());
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            jobs.drainTo(batch, MAX_BATCH - 1);
+            for (Job job: batch) {
+                try {
+                    session.decode(job.lowerWords, job.lowerWords.length, job.tags);
+                    job.decoded = true;
+                }
+                catch (RuntimeException e) {
+                    job.error = e;
+                }
+                finally {
+                    job.done.countDown();
+                }
+            }
+            sentences.add(batch.size());
+            batches.increment();
+            batch.clear();
+        }
+    }
+
+    /**
+     * @return - a virtual-thread-per-task executor on JVMs that have one, a cached thread pool otherwise
+     */
+    private static ExecutorService connectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * java TaggingServer port snapshotFile
+     * java TaggingServer port --off-heap snapshotFile
+     * java TaggingServer port tagsFile sentencesFile
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 && args.length != 3) {
+            System.err.println("Usage: java TaggingServer port (snapshotFile | --off-heap snapshotFile | tagsFile sentencesFile)");
+            return;
+        }
+        int port = Integer.parseInt(args[0]);
+        //small responses would otherwise wait on Nagle's algorithm and the client's delayed ACK (~40 ms each)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        int decoderThreads = Runtime.getRuntime().availableProcessors();
+        TaggingServer server;
+        if (args.length == 3 && args[1].equals("--off-heap")) {
+            server = new TaggingServer(OffHeapModel.load(args[2], OffHeapModel.Precision.FLOAT).getModel(), port,
+                    decoderThreads);
+        }
+        else {
+            CompiledModel model = args.length == 2 ? ModelSnapshot.load(args[1]) : new POSTagger(args[1], args[2]).compile();
+            server = new TaggingServer(model, port, decoderThreads);
+        }
+        server.start();
+        System.out.println("Tagging server listening on http://localhost:" + server.getPort() + "/tag");
+    }
+}
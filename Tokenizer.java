@@ -0,0 +1,70 @@
+import java.util.Arrays;
+
+/**
+ * Splits lines into tokens on runs of whitespace (spaces, tabs, \r, \f) in one pass, without the regex machinery of
+ * String.split or the whole-line copy of toLowerCase. Leading, trailing and repeated whitespace never produce empty
+ * tokens. Lower-casing only folds ASCII letters, the same folding CorpusReader applies to the raw bytes of a corpus,
+ * so words tokenized here always match the vocabulary read from the files
+ */
+public class Tokenizer {
+    private Tokenizer() {
+    }
+
+    /**
+     * @return - the tokens of the line, as written (e.g. tags)
+     */
+    public static String[] tokens(String line) {
+        return split(line, false);
+    }
+
+    /**
+     * @return - the tokens of the line with ASCII letters lower-cased (words)
+     */
+    public static String[] lowerTokens(String line) {
+        return split(line, true);
+    }
+
+    public static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '\f';
+    }
+
+    /**
+     * @return - c with an ASCII upper case letter folded to lower case
+     */
+    public static int toLower(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    private static String[] split(String line, boolean lowerCase) {
+        String[] tokens = new String[8];
+        int count = 0;
+        char[] scratch = null;
+        int length = line.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && isWhitespace(line.charAt(i))) i++;
+            if (i == length) break;
+            int start = i;
+            boolean upper = false;
+            while (i < length && !isWhitespace(line.charAt(i))) {
+                char c = line.charAt(i);
+                if (c >= 'A' && c <= 'Z') upper = true;
+                i++;
+            }
+            String token;
+            if (lowerCase && upper) {
+                if (scratch == null || scratch.length < i - start) scratch = new char[Math.max(16, i - start)];
+                for (int j = start; j < i; j++) {
+                    scratch[j - start] = (char) toLower(line.charAt(j));
+                }
+                token = new String(scratch, 0, i - start);
+            }
+            else {
+                token = line.substring(start, i);
+            }
+            if (count == tokens.length) tokens = Arrays.copyOf(tokens, count * 2);
+            tokens[count++] = token;
+        }
+        return count == tokens.length ? tokens : Arrays.copyOf(tokens, count);
+    }
+}
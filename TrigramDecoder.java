@@ -0,0 +1,232 @@
+import java.util.*;
+
+/**
+ * Viterbi over (previous tag, tag) pair states of a TrigramModel.
+ * A naive second-order lattice has numTags^2 states and numTags^3 edges per word, so the decoder only ever touches
+ * live pairs: each layer keeps a list of the pairs it reached, words only expand into their candidate tags (tags
+ * seen with the word, open-class tags if it is unknown), and every layer is beam pruned. Scores and backpointers
+ * are stamped per layer instead of cleared, so the cost of a layer follows the number of live pairs, not
+ * numTags^2. Not thread safe: keep one decoder per thread
+ */
+public class TrigramDecoder {
+    public static final double DEFAULT_BEAM_THRESHOLD = 10.0;
+
+    private final TrigramModel trigrams;
+    private final CompiledModel model;
+    private final int numTags;
+    private final int numPairs;
+    private double[] currScores;        //[pair] -> score, valid where currStamp == layer stamp
+    private double[] nextScores;
+    private int[] currStamp;
+    private int[] nextStamp;
+    private int[] currLive;             //pairs reached by the current layer
+    private int[] nextLive;
+    private int currCount;
+    private int nextCount;
+    private int stamp = 0;
+    private int[][] backTrack;          //[layer][pair (t1, t2)] -> t0 of the best pair (t0, t1) before it
+    private final double[] triScratch;  //P(t3 | t1, t2) of the pair being expanded, dense by t3
+    private final double[] liveScores;
+    private final int[] candidateTags;      //scratch copy of a known word's emissions
+    private final double[] candidateScores;
+    private final UnknownScoreCache unknownScores;      //scores of unknown words, by feature
+    private int beamWidth = 0;
+    private double beamThreshold = DEFAULT_BEAM_THRESHOLD;
+
+    public TrigramDecoder(TrigramModel trigrams) {
+        this.trigrams = trigrams;
+        this.model = trigrams.getModel();
+        this.numTags = trigrams.numTags();
+        this.numPairs = numTags * numTags;
+        currScores = new double[numPairs];
+        nextScores = new double[numPairs];
+        currStamp = new int[numPairs];
+        nextStamp = new int[numPairs];
+        currLive = new int[numPairs];
+        nextLive = new int[numPairs];
+        liveScores = new double[numPairs];
+        triScratch = new double[numTags];
+        candidateTags = new int[numTags];
+        candidateScores = new double[numTags];
+        backTrack = new int[0][];
+        unknownScores = new UnknownScoreCache(model);
+        ensureCapacity(16);
+    }
+
+    /**
+     * Keeps only the beamWidth best pairs of every layer; 0 for no limit
+     */
+    public void setBeamWidth(int beamWidth) {
+        if (beamWidth < 0) throw new IllegalArgumentException("beamWidth must not be negative, got " + beamWidth);
+        this.beamWidth = beamWidth;
+    }
+
+    /**
+     * Drops pairs scoring more than beamThreshold below the best pair of their layer; POSITIVE_INFINITY for no limit
+     */
+    public void setBeamThreshold(double beamThreshold) {
+        if (!(beamThreshold >= 0)) throw new IllegalArgumentException("beamThreshold must be >= 0, got " + beamThreshold);
+        this.beamThreshold = beamThreshold;
+    }
+
+    /**
+     * @return - List of most likely tags corresponding to the words in the provided text
+     */
+    public List<String> viterbi(String lineString) {
+        String[] line = Tokenizer.lowerTokens(lineString);
+        int[] tagIds = new int[line.length];
+        decode(line, line.length, tagIds);
+        List<String> tags = new ArrayList<>(line.length);
+        for (int tagId: tagIds) {
+            tags.add(tagId == -1 ? null : model.tag(tagId));
+        }
+        return tags;
+    }
+
+    /**
+     * Decodes the first length words and writes the best tag id for each into tagIds
+     * @param words - lower case words of the sentence
+     * @param tagIds - output, must hold at least length entries; -1 where no tag could be reached
+     * @return - number of tags written
+     */
+    public int decode(String[] words, int length, int[] tagIds) {
+        ensureCapacity(length);
+        int[] pairOffsets = trigrams.pairOffsets();
+        int[] pairSuccessors = trigrams.pairSuccessors();
+        double[] pairProbs = trigrams.pairProbs();
+
+        //begin with the pair (#, #) and a score of 0
+        int start = model.startTag() * numTags + model.startTag();
+        if (stamp > Integer.MAX_VALUE - length - 2) {
+            //stamps are about to wrap around; forget every old one
+            Arrays.fill(currStamp, 0);
+            Arrays.fill(nextStamp, 0);
+            stamp = 0;
+        }
+        stamp++;
+        currCount = 0;
+        currLive[currCount++] = start;
+        currScores[start] = 0.0;
+        currStamp[start] = stamp;
+
+        for (int i = 0; i < length; i++) {
+            int[] candidates;
+            double[] observationScores;
+            int numCandidates;
+            int wordId = model.wordId(words[i]);
+            if (wordId != -1) {
+                candidates = candidateTags;
+                observationScores = candidateScores;
+                numCandidates = 0;
+                for (int e = model.emissionStart(wordId); e < model.emissionEnd(wordId); e++) {
+                    candidateTags[numCandidates] = model.emissionTag(e);
+                    candidateScores[numCandidates++] = model.emissionScore(e);
+                }
+            }
+            else {
+                candidates = model.getUnknownWordModel().getOpenClassTags();
+                observationScores = unknownScores.scores(words[i]);
+                numCandidates = candidates.length;
+            }
+
+            stamp++;
+            nextCount = 0;
+            int[] layerBack = backTrack[i];
+            for (int l = 0; l < currCount; l++) {
+                int pair = currLive[l];
+                int t1 = pair / numTags;
+                int t2 = pair % numTags;
+                double score = currScores[pair];
+                for (int e = pairOffsets[pair]; e < pairOffsets[pair + 1]; e++) {
+                    triScratch[pairSuccessors[e]] = pairProbs[e];
+                }
+                for (int c = 0; c < numCandidates; c++) {
+                    int t3 = candidates[c];
+                    double probability = trigrams.interpolate(t2, t3, triScratch[t3]);
+                    if (probability <= 0) continue;
+                    double nextScore = score + Math.log(probability) + observationScores[c];
+                    int next = t2 * numTags + t3;
+                    if (nextStamp[next] != stamp) {
+                        nextStamp[next] = stamp;
+                        nextLive[nextCount++] = next;
+                        nextScores[next] = nextScore;
+                        layerBack[next] = t1;
+                    }
+                    else if (nextScore > nextScores[next]) {
+                        nextScores[next] = nextScore;
+                        layerBack[next] = t1;
+                    }
+                }
+                for (int e = pairOffsets[pair]; e < pairOffsets[pair + 1]; e++) {
+                    triScratch[pairSuccessors[e]] = 0;
+                }
+            }
+            prune();
+
+            double[] swapScores = currScores;
+            currScores = nextScores;
+            nextScores = swapScores;
+            int[] swapStamp = currStamp;
+            currStamp = nextStamp;
+            nextStamp = swapStamp;
+            int[] swapLive = currLive;
+            currLive = nextLive;
+            nextLive = swapLive;
+            currCount = nextCount;
+        }
+
+        //best final pair, then follow the backpointers
+        int pair = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int l = 0; l < currCount; l++) {
+            if (currScores[currLive[l]] > bestScore) {
+                bestScore = currScores[currLive[l]];
+                pair = currLive[l];
+            }
+        }
+        for (int layer = length - 1; layer >= 0; layer--) {
+            if (pair == -1) {
+                tagIds[layer] = -1;
+                continue;
+            }
+            int t2 = pair % numTags;
+            int t1 = pair / numTags;
+            tagIds[layer] = t2;
+            pair = backTrack[layer][pair] * numTags + t1;
+        }
+        return length;
+    }
+
+    /**
+     * Beam pruning of the pairs just reached, by threshold and then by width
+     */
+    private void prune() {
+        double best = Double.NEGATIVE_INFINITY;
+        for (int l = 0; l < nextCount; l++) {
+            best = Math.max(best, nextScores[nextLive[l]]);
+        }
+        double cutoff = best - beamThreshold;
+        if (beamWidth > 0 && nextCount > beamWidth) {
+            for (int l = 0; l < nextCount; l++) {
+                liveScores[l] = nextScores[nextLive[l]];
+            }
+            Arrays.sort(liveScores, 0, nextCount);
+            cutoff = Math.max(cutoff, liveScores[nextCount - beamWidth]);
+        }
+        int kept = 0;
+        for (int l = 0; l < nextCount; l++) {
+            if (nextScores[nextLive[l]] >= cutoff) nextLive[kept++] = nextLive[l];
+        }
+        nextCount = kept;
+    }
+
+    private void ensureCapacity(int length) {
+        if (length <= backTrack.length) return;
+        int capacity = Math.max(length, backTrack.length * 2);
+        int[][] grown = Arrays.copyOf(backTrack, capacity);
+        for (int i = backTrack.length; i < capacity; i++) {
+            grown[i] = new int[numPairs];
+        }
+        backTrack = grown;
+    }
+}
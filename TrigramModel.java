@@ -0,0 +1,134 @@
+import java.util.*;
+
+/**
+ * Optional second-order HMM: P(tag | two previous tags) smoothed by deleted interpolation,
+ *   P(t3 | t1, t2) = l1 P(t3) + l2 P(t3 | t2) + l3 P(t3 | t1, t2)
+ * with the lambdas estimated from the training counts as in Brants' TnT tagger. Tag ids and emissions are those of
+ * the CompiledModel it was built with. Trigram probabilities are stored sparsely: the observed successors of each
+ * (t1, t2) pair form one CSR row indexed by t1 * numTags + t2. Immutable, decode with a TrigramDecoder
+ */
+public class TrigramModel {
+    private final CompiledModel model;
+    private final int numTags;
+    private final double[] lambdas;             //{l1, l2, l3}
+    private final double[] unigrams;            //[tag] -> P(tag)
+    private final double[][] bigrams;           //[t2][t3] -> P(t3 | t2), 0 if never observed
+    private final int[] pairOffsets;            //CSR over pairs: successors of pair p are at [p] .. [p+1]-1
+    private final int[] pairSuccessors;         //t3 of each observed trigram
+    private final double[] pairProbs;           //P(t3 | t1, t2) of each observed trigram
+
+    /**
+     * @param model - compiled first-order model giving tag ids and emissions
+     * @param bigramCounts - POS -> (POS -> count), as kept by POSTagger
+     * @param trigramCounts - "POS POS" -> (POS -> count), as kept by POSTagger
+     */
+    TrigramModel(CompiledModel model, CountTable bigramCounts, CountTable trigramCounts) {
+        this.model = model;
+        this.numTags = model.numTags();
+
+        //unigram counts are the bigram counts by target tag
+        double[] tagCounts = new double[numTags];
+        double totalTags = 0;
+        for (String prev: bigramCounts.rows()) {
+            for (String next: bigramCounts.columns(prev)) {
+                int count = bigramCounts.get(prev, next);
+                tagCounts[model.tagId(next)] += count;
+                totalTags += count;
+            }
+        }
+        unigrams = new double[numTags];
+        for (int t = 0; t < numTags; t++) {
+            unigrams[t] = totalTags == 0 ? 0 : tagCounts[t] / totalTags;
+        }
+        bigrams = new double[numTags][numTags];
+        for (String prev: bigramCounts.rows()) {
+            double rowTotal = bigramCounts.rowTotal(prev);
+            for (String next: bigramCounts.columns(prev)) {
+                bigrams[model.tagId(prev)][model.tagId(next)] = bigramCounts.get(prev, next) / rowTotal;
+            }
+        }
+
+        //deleted interpolation: each trigram votes, with its count, for the order that predicts it best
+        //once that occurrence is left out; every order starts with one vote so no lambda is 0 and every
+        //observed tag stays reachable
+        double[] votes = {1, 1, 1};
+        List<int[]> trigrams = new ArrayList<>();   //{pair, t3, count}
+        for (String history: trigramCounts.rows()) {
+            String[] pair = history.split(" ");
+            int t1 = model.tagId(pair[0]);
+            int t2 = model.tagId(pair[1]);
+            double historyTotal = trigramCounts.rowTotal(history);
+            double t2Total = bigramCounts.rowTotal(pair[1]);
+            for (String next: trigramCounts.columns(history)) {
+                int t3 = model.tagId(next);
+                int count = trigramCounts.get(history, next);
+                trigrams.add(new int[]{t1 * numTags + t2, t3, count});
+
+                double c3 = historyTotal > 1 ? (count - 1) / (historyTotal - 1) : 0;
+                double c2 = t2Total > 1 ? (bigramCounts.get(pair[1], next) - 1) / (t2Total - 1) : 0;
+                double c1 = totalTags > 1 ? (tagCounts[t3] - 1) / (totalTags - 1) : 0;
+                if (c3 >= c2 && c3 >= c1) votes[2] += count;
+                else if (c2 >= c1) votes[1] += count;
+                else votes[0] += count;
+            }
+        }
+        double totalVotes = votes[0] + votes[1] + votes[2];
+        lambdas = new double[3];
+        for (int i = 0; i < 3; i++) {
+            lambdas[i] = votes[i] / totalVotes;
+        }
+
+        //CSR rows of trigram probabilities
+        trigrams.sort((a, b) -> a[0] != b[0] ? Integer.compare(a[0], b[0]) : Integer.compare(a[1], b[1]));
+        pairOffsets = new int[numTags * numTags + 1];
+        pairSuccessors = new int[trigrams.size()];
+        pairProbs = new double[trigrams.size()];
+        long[] pairTotals = new long[numTags * numTags];
+        for (int[] trigram: trigrams) {
+            pairOffsets[trigram[0] + 1]++;
+            pairTotals[trigram[0]] += trigram[2];
+        }
+        for (int p = 0; p < numTags * numTags; p++) {
+            pairOffsets[p + 1] += pairOffsets[p];
+        }
+        for (int i = 0; i < trigrams.size(); i++) {
+            int[] trigram = trigrams.get(i);
+            pairSuccessors[i] = trigram[1];
+            pairProbs[i] = (double) trigram[2] / pairTotals[trigram[0]];
+        }
+    }
+
+    public CompiledModel getModel() {
+        return model;
+    }
+
+    /**
+     * @return - {l1, l2, l3}, the unigram, bigram and trigram weights
+     */
+    public double[] getLambdas() {
+        return lambdas.clone();
+    }
+
+    /**
+     * @return - interpolated P(t3 | t1, t2) given the trigram probability triProb looked up by the caller
+     */
+    double interpolate(int t2, int t3, double triProb) {
+        return lambdas[0] * unigrams[t3] + lambdas[1] * bigrams[t2][t3] + lambdas[2] * triProb;
+    }
+
+    int numTags() {
+        return numTags;
+    }
+
+    int[] pairOffsets() {
+        return pairOffsets;
+    }
+
+    int[] pairSuccessors() {
+        return pairSuccessors;
+    }
+
+    double[] pairProbs() {
+        return pairProbs;
+    }
+}
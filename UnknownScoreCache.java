@@ -0,0 +1,44 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of UnknownWordModel scores for one decoder. The scores of an unknown word depend only on its feature
+ * (shape or suffix), so entries are keyed by UnknownWordModel.feature: every unknown word ending in "ing" shares one
+ * entry, and a lookup allocates nothing. Not thread safe
+ */
+public class UnknownScoreCache {
+    private static final int SIZE = 4096;
+
+    private final CompiledModel model;
+    private final Map<String, double[]> scores;
+    private double[] featureless;   //scores of words without a known feature, computed on first use
+
+    public UnknownScoreCache(CompiledModel model) {
+        this.model = model;
+        scores = new LinkedHashMap<String, double[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, double[]> eldest) {
+                return size() > SIZE;
+            }
+        };
+    }
+
+    /**
+     * @param word - lower case, out-of-vocabulary word
+     * @return - UnknownWordModel.scores of the word; callers must not modify it
+     */
+    public double[] scores(String word) {
+        UnknownWordModel unknownWords = model.getUnknownWordModel();
+        String feature = unknownWords.feature(word);
+        if (feature == null) {
+            if (featureless == null) featureless = unknownWords.featureScores(null);
+            return featureless;
+        }
+        double[] featureScores = scores.get(feature);
+        if (featureScores == null) {
+            featureScores = unknownWords.featureScores(feature);
+            scores.put(feature, featureScores);
+        }
+        return featureScores;
+    }
+}
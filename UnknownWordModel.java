@@ -0,0 +1,192 @@
+import java.util.*;
+
+/**
+ * Guesses emission scores for out-of-vocabulary words from their shape and suffix.
+ * Only open-class tags (tags seen with many different words, like nouns and verbs) are considered for unknown
+ * words. For every feature (shape, last 1..MAX_SUFFIX letters) the model counts which open-class tags the
+ * vocabulary's words with that feature were seen with, and scores an unknown word as
+ * unseenScore + log(P(tag | feature) / P(tag)), so a feature that says nothing about the tag scores unseenScore
+ */
+public class UnknownWordModel {
+    private static final int MAX_SUFFIX = 3;
+    private static final int OPEN_CLASS_DIVISOR = 100;  //open class: tags seen with at least 1/100 of the vocabulary
+    private static final String DIGIT = "shape:digit";
+    private static final String HYPHEN = "shape:hyphen";
+    private static final String SUFFIX = "suffix:";
+
+    private final int[] openClassTags;
+    private final double unseenScore;
+    private final Map<String, int[]> featureCounts;     //feature -> type count per open-class tag
+    private final double[] tagPriors;                   //P(tag) over open-class (word, tag) types
+    private final String[] suffixes;        //open addressing table of the suffixes that have counts, by String hash
+    private final String[] suffixFeatures;  //featureCounts key of each suffix in the table
+
+    UnknownWordModel(CompiledModel model) {
+        this.unseenScore = model.getUnseenScore();
+        int numTags = model.numTags();
+        int numWords = model.numWords();
+
+        //open-class tags are the ones with many distinct words
+        int[] typesPerTag = new int[numTags];
+        for (int w = 0; w < numWords; w++) {
+            for (int e = model.emissionStart(w); e < model.emissionEnd(w); e++) {
+                typesPerTag[model.emissionTag(e)]++;
+            }
+        }
+        int minTypes = Math.max(2, numWords / OPEN_CLASS_DIVISOR);
+        int[] openIndex = new int[numTags];     //tag id -> position in openClassTags, -1 if closed
+        Arrays.fill(openIndex, -1);
+        List<Integer> open = new ArrayList<>();
+        for (int t = 0; t < numTags; t++) {
+            if (typesPerTag[t] >= minTypes && !model.tag(t).equals(CompiledModel.START_TAG)) {
+                openIndex[t] = open.size();
+                open.add(t);
+            }
+        }
+        if (open.isEmpty()) {
+            //tiny models: let every tag that emits anything take unknown words
+            for (int t = 0; t < numTags; t++) {
+                if (typesPerTag[t] > 0) {
+                    openIndex[t] = open.size();
+                    open.add(t);
+                }
+            }
+        }
+        openClassTags = new int[open.size()];
+        for (int i = 0; i < openClassTags.length; i++) {
+            openClassTags[i] = open.get(i);
+        }
+
+        //count features by word type
+        featureCounts = new HashMap<>();
+        int[] tagTypes = new int[openClassTags.length];
+        for (int w = 0; w < numWords; w++) {
+            String word = model.word(w);
+            for (int e = model.emissionStart(w); e < model.emissionEnd(w); e++) {
+                int index = openIndex[model.emissionTag(e)];
+                if (index == -1) continue;
+                tagTypes[index]++;
+                for (String feature: features(word)) {
+                    int[] counts = featureCounts.get(feature);
+                    if (counts == null) {
+                        counts = new int[openClassTags.length];
+                        featureCounts.put(feature, counts);
+                    }
+                    counts[index]++;
+                }
+            }
+        }
+        tagPriors = new double[openClassTags.length];
+        double totalTypes = 0;
+        for (int types: tagTypes) {
+            totalTypes += types;
+        }
+        for (int i = 0; i < tagPriors.length; i++) {
+            tagPriors[i] = (tagTypes[i] + 1) / (totalTypes + tagPriors.length);
+        }
+
+        //index the suffixes by their own String hash, so feature can find them without building substrings
+        int slots = Integer.highestOneBit(Math.max(2, featureCounts.size() * 2 - 1)) << 1;
+        suffixes = new String[slots];
+        suffixFeatures = new String[slots];
+        for (String feature: featureCounts.keySet()) {
+            if (!feature.startsWith(SUFFIX)) continue;
+            String suffix = feature.substring(SUFFIX.length());
+            int slot = suffix.hashCode() & (slots - 1);
+            while (suffixes[slot] != null) slot = (slot + 1) & (slots - 1);
+            suffixes[slot] = suffix;
+            suffixFeatures[slot] = feature;
+        }
+    }
+
+    /**
+     * @return - ids of the tags an unknown word may take
+     */
+    public int[] getOpenClassTags() {
+        return openClassTags;
+    }
+
+    /**
+     * @param word - lower case, out-of-vocabulary word
+     * @return - emission score for each tag of getOpenClassTags, in the same order
+     */
+    public double[] scores(String word) {
+        return featureScores(feature(word));
+    }
+
+    /**
+     * The feature scores depends on: the word's most specific feature that the vocabulary has counts for.
+     * Allocates nothing, so decoders can key caches of scores by it
+     * @param word - lower case, out-of-vocabulary word
+     * @return - the feature, the same String instance for every word that has it; null if no feature has counts
+     */
+    public String feature(String word) {
+        boolean digit = false;
+        boolean hyphen = false;
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (Character.isDigit(c)) digit = true;
+            else if (c == '-') hyphen = true;
+        }
+        if (digit && featureCounts.containsKey(DIGIT)) return DIGIT;
+        if (!digit && hyphen && featureCounts.containsKey(HYPHEN)) return HYPHEN;
+        int mask = suffixes.length - 1;
+        for (int length = Math.min(MAX_SUFFIX, word.length() - 1); length >= 1; length--) {
+            int from = word.length() - length;
+            int hash = 0;   //String.hashCode of the suffix
+            for (int i = from; i < word.length(); i++) {
+                hash = 31 * hash + word.charAt(i);
+            }
+            for (int slot = hash & mask; suffixes[slot] != null; slot = (slot + 1) & mask) {
+                String suffix = suffixes[slot];
+                if (suffix.length() == length && word.regionMatches(from, suffix, 0, length)) {
+                    return suffixFeatures[slot];
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param feature - a feature returned by feature, or null
+     * @return - emission score for each tag of getOpenClassTags, in the same order, of words with that feature
+     */
+    public double[] featureScores(String feature) {
+        int[] counts = feature == null ? null : featureCounts.get(feature);
+        double[] scores = new double[openClassTags.length];
+        if (counts == null) {
+            Arrays.fill(scores, unseenScore);
+            return scores;
+        }
+        double total = 0;
+        for (int count: counts) {
+            total += count;
+        }
+        for (int i = 0; i < scores.length; i++) {
+            double probability = (counts[i] + 1) / (total + scores.length);
+            scores[i] = unseenScore + Math.log(probability / tagPriors[i]);
+        }
+        return scores;
+    }
+
+    /**
+     * @return - the word's features, most specific first: its shape (if it has digits or a hyphen),
+     * then its suffixes from longest to shortest
+     */
+    private static List<String> features(String word) {
+        List<String> features = new ArrayList<>(MAX_SUFFIX + 1);
+        boolean digit = false;
+        boolean hyphen = false;
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (Character.isDigit(c)) digit = true;
+            else if (c == '-') hyphen = true;
+        }
+        if (digit) features.add(DIGIT);
+        else if (hyphen) features.add(HYPHEN);
+        for (int length = Math.min(MAX_SUFFIX, word.length() - 1); length >= 1; length--) {
+            features.add(SUFFIX + word.substring(word.length() - length));
+        }
+        return features;
+    }
+}
@@ -0,0 +1,79 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Hashing and comparing Strings against UTF-8 bytes stored in a ByteBuffer (a mapped snapshot or direct memory),
+ * encoding the String on the fly so a lookup neither allocates nor needs a scratch buffer. Encodes like
+ * String.getBytes(UTF_8): unpaired surrogates become '?'
+ */
+public class Utf8 {
+    private Utf8() {
+    }
+
+    /**
+     * @return - hash of the UTF-8 bytes of the word; equal to hash(bytes, offset, length) over those bytes
+     */
+    public static int hash(String word) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < word.length(); ) {
+            int codePoint = codePointAt(word, i);
+            i += Character.charCount(codePoint);
+            int count = byteCount(codePoint);
+            for (int k = 0; k < count; k++) {
+                hash = (hash ^ (byte) byteAt(codePoint, count, k)) * 0x01000193;
+            }
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * FNV-1a, as ByteVocabulary, over bytes[offset .. offset+length-1]
+     */
+    public static int hash(ByteBuffer bytes, int offset, int length) {
+        int hash = 0x811c9dc5;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ bytes.get(i)) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return - true if bytes[offset .. offset+length-1] are the UTF-8 encoding of the word
+     */
+    public static boolean equals(ByteBuffer bytes, int offset, int length, String word) {
+        int position = offset;
+        int end = offset + length;
+        for (int i = 0; i < word.length(); ) {
+            int codePoint = codePointAt(word, i);
+            i += Character.charCount(codePoint);
+            int count = byteCount(codePoint);
+            if (position + count > end) return false;
+            for (int k = 0; k < count; k++) {
+                if (bytes.get(position++) != (byte) byteAt(codePoint, count, k)) return false;
+            }
+        }
+        return position == end;
+    }
+
+    /**
+     * @return - the code point at index i, '?' for an unpaired surrogate
+     */
+    private static int codePointAt(String word, int i) {
+        char c = word.charAt(i);
+        if (c < 0x80) return c;
+        int codePoint = Character.codePointAt(word, i);
+        return Character.isSurrogate((char) codePoint) ? '?' : codePoint;
+    }
+
+    private static int byteCount(int codePoint) {
+        return codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+    }
+
+    /**
+     * @return - byte k of the count-byte encoding of the code point
+     */
+    private static int byteAt(int codePoint, int count, int k) {
+        if (count == 1) return codePoint;
+        if (k == 0) return (0xF00 >> count) & 0xFF | codePoint >> (6 * (count - 1));
+        return 0x80 | (codePoint >> (6 * (count - 1 - k))) & 0x3F;
+    }
+}
@@ -0,0 +1,177 @@
+import viterbi.jmh.Fixture;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Default-package side of the JMH benchmarks: builds the same corpora, models and decoders as Benchmarks and runs
+ * one workload per call
+ */
+public class BenchmarkFixture implements Fixture {
+    private String[] simple;
+    private String[] brown;
+    private POSTagger tagger;
+    private CompiledModel model;
+    private DecoderSession session;
+    private DecoderSession denseSession;
+    private DecoderSession beamSession;
+    private KBestDecoder kBest;
+    private TrigramDecoder trigramDecoder;
+    private String[] lines;             //generated sentences
+    private String[][] words;           //the same, tokenized
+    private List<String> testLines;     //Brown-sized test corpus
+    private String[][] testTags;
+    private String[][] testWords;
+    private long testTokens;
+    private int[] tagIds;
+
+    @Override
+    public void setUp(int sentenceLength, int sentences) {
+        try {
+            simple = Benchmarks.corpus("simple-train", 12, 40, 50);
+            brown = Benchmarks.corpus("brown-train", 40, 2000, 40000);
+            String[] brownTest = Benchmarks.corpus("brown-test", 40, 2000, 4000);
+            testLines = Files.readAllLines(Paths.get(brownTest[1]));
+            List<String> testTagLines = Files.readAllLines(Paths.get(brownTest[0]));
+            testTags = new String[testTagLines.size()][];
+            for (int s = 0; s < testTags.length; s++) {
+                testTags[s] = Tokenizer.tokens(testTagLines.get(s));
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        tagger = new POSTagger(brown[0], brown[1]);
+        model = tagger.compile();
+        session = new DecoderSession(model);
+        denseSession = new DecoderSession(model);
+        denseSession.setDenseLayers(true);
+        beamSession = new DecoderSession(model);
+        beamSession.setBeamWidth(Benchmarks.BEAM_WIDTH);
+        kBest = new KBestDecoder(model, Benchmarks.K_BEST);
+        trigramDecoder = new TrigramDecoder(tagger.compileTrigram());
+
+        SyntheticCorpus generator = new SyntheticCorpus(40, 2000, 1);
+        lines = new String[sentences];
+        words = new String[sentences][];
+        for (int s = 0; s < sentences; s++) {
+            lines[s] = generator.sentence(sentenceLength)[1];
+            words[s] = Tokenizer.lowerTokens(lines[s]);
+        }
+        testWords = new String[testLines.size()][];
+        int longest = sentenceLength;
+        testTokens = 0;
+        for (int s = 0; s < testWords.length; s++) {
+            testWords[s] = Tokenizer.lowerTokens(testLines.get(s));
+            testTokens += testWords[s].length;
+            longest = Math.max(longest, testWords[s].length);
+        }
+        tagIds = new int[longest];
+    }
+
+    @Override
+    public Object trainSimple() {
+        return new POSTagger(simple[0], simple[1]);
+    }
+
+    @Override
+    public Object trainBrown() {
+        return new POSTagger(brown[0], brown[1]);
+    }
+
+    @Override
+    public Object trainSharded(int workers) {
+        tagger.trainSharded(brown[0], brown[1], workers);
+        return tagger;
+    }
+
+    @Override
+    public int decode(String decoder) {
+        int reached = 0;
+        switch (decoder) {
+            case "viterbi":
+                for (String line: lines) reached += tagger.viterbi(line).size();
+                return reached;
+            case "compiled":
+                for (String line: lines) reached += model.viterbi(line).size();
+                return reached;
+            case "session":
+                return decodeAll(words, session::decode);
+            case "dense":
+                return decodeAll(words, denseSession::decode);
+            case "trigram":
+                return decodeAll(words, trigramDecoder::decode);
+            case "beam":
+                return decodeAll(words, beamSession::decode);
+            case "kbest":
+                return decodeAll(words, this::decodeTop);
+            default:
+                throw new IllegalArgumentException("Unknown decoder " + decoder);
+        }
+    }
+
+    @Override
+    public Object batch(int workers) {
+        return new BatchTagger(model, workers).tagLines(testLines);
+    }
+
+    @Override
+    public int decodeTestCorpus(String decoder) {
+        return decodeAll(testWords, testDecoder(decoder));
+    }
+
+    @Override
+    public double accuracy(String decoder) {
+        Decoder testDecoder = testDecoder(decoder);
+        long correct = 0;
+        for (int s = 0; s < testWords.length; s++) {
+            testDecoder.decode(testWords[s], testWords[s].length, tagIds);
+            for (int i = 0; i < testWords[s].length; i++) {
+                if (tagIds[i] != -1 && model.tag(tagIds[i]).equals(testTags[s][i])) correct++;
+            }
+        }
+        return (double) correct / testTokens;
+    }
+
+    @Override
+    public long testTokens() {
+        return testTokens;
+    }
+
+    private interface Decoder {
+        void decode(String[] words, int length, int[] tagIds);
+    }
+
+    private Decoder testDecoder(String decoder) {
+        switch (decoder) {
+            case "session":
+                return session::decode;
+            case "trigram":
+                return trigramDecoder::decode;
+            case "beam":
+                return beamSession::decode;
+            case "kbest":
+                return this::decodeTop;
+            default:
+                throw new IllegalArgumentException("Unknown decoder " + decoder);
+        }
+    }
+
+    private void decodeTop(String[] words, int length, int[] tagIds) {
+        Benchmarks.decodeTop(kBest, model, words, length, tagIds);
+    }
+
+    private int decodeAll(String[][] sentences, Decoder decoder) {
+        int reached = 0;
+        for (String[] sentence: sentences) {
+            decoder.decode(sentence, sentence.length, tagIds);
+            for (int i = 0; i < sentence.length; i++) {
+                if (tagIds[i] != -1) reached++;
+            }
+        }
+        return reached;
+    }
+}
@@ -0,0 +1,63 @@
+package viterbi.jmh;
+
+/**
+ * The tagger's workloads as seen from a JMH benchmark. JMH refuses benchmarks in the default package, where the
+ * tagger classes live, and a named package cannot refer to them, so the default-package BenchmarkFixture implements
+ * this interface and the benchmarks only ever call through it
+ */
+public interface Fixture {
+    /**
+     * Trains the Brown-sized model and prepares every decoder over it
+     * @param sentenceLength - length of the generated sentences the decode workloads tag
+     * @param sentences - number of generated sentences
+     */
+    void setUp(int sentenceLength, int sentences);
+
+    /**
+     * @return - a POSTagger freshly trained on the simple corpus
+     */
+    Object trainSimple();
+
+    /**
+     * @return - a POSTagger freshly trained on the Brown-sized corpus
+     */
+    Object trainBrown();
+
+    /**
+     * Retrains the tagger built by setUp with trainSharded
+     * @return - that tagger
+     */
+    Object trainSharded(int workers);
+
+    /**
+     * Tags every generated sentence with the named decoder
+     * @param decoder - viterbi, compiled, session, dense, trigram, beam (session with a beam of Benchmarks.BEAM_WIDTH)
+     * or kbest (top sequence of a Benchmarks.K_BEST-best decoder)
+     * @return - number of tags that were reached, so the work cannot be eliminated
+     */
+    int decode(String decoder);
+
+    /**
+     * Tags the Brown-sized test corpus on a BatchTagger
+     * @return - the tags
+     */
+    Object batch(int workers);
+
+    /**
+     * Tags the Brown-sized test corpus one sentence after the other
+     * @param decoder - session, trigram, beam or kbest
+     * @return - number of tags that were reached
+     */
+    int decodeTestCorpus(String decoder);
+
+    /**
+     * @param decoder - as for decodeTestCorpus
+     * @return - fraction of the Brown-sized test corpus's tags the decoder gets right
+     */
+    double accuracy(String decoder);
+
+    /**
+     * @return - number of tokens decodeTestCorpus tags
+     */
+    long testTokens();
+}
@@ -0,0 +1,152 @@
+package viterbi.jmh;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH versions of the Benchmarks rows: training, decoding by sentence length and decoder, batch throughput, and
+ * exact, beam, k-best and second-order decoding of the test corpus, whose accuracy against the exact decoder's is
+ * printed at setup. Add -prof gc for bytes allocated per operation.
+ * Build with mvn install in the repository root, then mvn package here, and run with
+ * java -jar target/benchmarks.jar
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaggerBenchmarks {
+    private static final int SENTENCES = 200;
+
+    /**
+     * @return - the default-package fixture, which cannot be named from here
+     */
+    static Fixture fixture(int sentenceLength) {
+        try {
+            Fixture fixture = (Fixture) Class.forName("BenchmarkFixture").getDeclaredConstructor().newInstance();
+            fixture.setUp(sentenceLength, SENTENCES);
+            return fixture;
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("BenchmarkFixture is missing from the benchmark jar", e);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Training {
+        Fixture fixture;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            fixture = fixture(10);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ShardedTraining extends Training {
+        @Param({"1", "2", "4"})
+        int workers;
+    }
+
+    @State(Scope.Thread)
+    public static class Decoding {
+        Fixture fixture;
+
+        @Param({"5", "10", "20", "40"})
+        int length;
+
+        @Param({"viterbi", "compiled", "session", "dense", "trigram", "beam", "kbest"})
+        String decoder;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            fixture = fixture(length);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Batch {
+        Fixture fixture;
+
+        @Param({"1", "2", "4"})
+        int workers;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            fixture = fixture(10);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Corpus {
+        Fixture fixture;
+
+        @Param({"session", "trigram", "beam", "kbest"})
+        String decoder;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            fixture = fixture(10);
+            System.out.printf("%n%s accuracy %.4f, exact session %.4f%n",
+                    decoder, fixture.accuracy(decoder), fixture.accuracy("session"));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public Object trainSimple(Training state) {
+        return state.fixture.trainSimple();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public Object trainBrown(Training state) {
+        return state.fixture.trainBrown();
+    }
+
+    /**
+     * Only the retraining is timed; the tagger it retrains is built in setUp
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public Object trainSharded(ShardedTraining state) {
+        return state.fixture.trainSharded(state.workers);
+    }
+
+    /**
+     * Time per sentence of the given length
+     */
+    @Benchmark
+    @OperationsPerInvocation(SENTENCES)
+    public int decode(Decoding state) {
+        return state.fixture.decode(state.decoder);
+    }
+
+    /**
+     * Time to tag the whole test corpus
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object batchTagLines(Batch state) {
+        return state.fixture.batch(state.workers);
+    }
+
+    /**
+     * Time to tag the whole test corpus on this thread; divide by Fixture.testTokens for the time per token
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int decodeTestCorpus(Corpus state) {
+        return state.fixture.decodeTestCorpus(state.decoder);
+    }
+}
@@ -0,0 +1,41 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * BatchTagger.testModel must count exactly like POSTagger.testModel on the same model. Only on a corpus without exact
+ * ties: there the two decoders may pick different equally scored tags (see DecoderSessionTest)
+ */
+public class BatchTaggerTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testModelMatchesPOSTaggerOnSyntheticCorpus() throws IOException {
+        String[] train = files("train");
+        String[] test = files("test");
+        new SyntheticCorpus(12, 40, 7, 7).write(train[0], train[1], 500, 40);
+        new SyntheticCorpus(12, 40, 7, 8).write(test[0], test[1], 500, 40);
+        assertSameCounts(train, test);
+    }
+
+    private void assertSameCounts(String[] train, String[] test) {
+        POSTagger tagger = new POSTagger(train[0], train[1]);
+        List<Integer> expected = tagger.testModel(test[0], test[1]);
+        List<Integer> actual = new BatchTagger(tagger.compile(), 2).testModel(test[0], test[1]);
+        assertEquals(2, expected.size());
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * @return - {tagsFileName, sentencesFileName} in the temporary directory
+     */
+    private String[] files(String name) {
+        return new String[]{dir.resolve(name + "-tags.txt").toString(), dir.resolve(name + "-sentences.txt").toString()};
+    }
+}
@@ -0,0 +1,71 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * A DecoderSession that has seen the longest sentence (and, with candidate pruning, every unknown word) must decode
+ * without allocating
+ */
+public class DecoderSessionAllocationTest {
+    private static final int WARM_UP_ROUNDS = 1000;
+    private static final int ROUNDS = 50;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void exactDecodingAllocatesNothing() throws IOException {
+        assertNoAllocation(false);
+    }
+
+    @Test
+    public void candidatePruningAllocatesNothing() throws IOException {
+        assertNoAllocation(true);
+    }
+
+    private void assertNoAllocation(boolean candidatePruning) throws IOException {
+        String trainTags = dir.resolve("train-tags.txt").toString();
+        String trainSentences = dir.resolve("train-sentences.txt").toString();
+        String testTags = dir.resolve("test-tags.txt").toString();
+        String testSentences = dir.resolve("test-sentences.txt").toString();
+        new SyntheticCorpus(20, 100, 3, 3).write(trainTags, trainSentences, 1000, 30);
+        new SyntheticCorpus(20, 100, 3, 4).write(testTags, testSentences, 100, 30);
+
+        DecoderSession session = new DecoderSession(new POSTagger(trainTags, trainSentences).compile());
+        session.setCandidatePruning(candidatePruning);
+        List<String> lines = Files.readAllLines(Path.of(testSentences));
+        String[][] sentences = new String[lines.size()][];
+        for (int s = 0; s < sentences.length; s++) {
+            sentences[s] = Tokenizer.lowerTokens(lines.get(s));
+        }
+        int[] tagIds = new int[30];
+
+        //warm up until the JIT has compiled decode for good (allocation can show up while it is still compiling)
+        //and the lattice and unknown word cache are full grown
+        for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+            decodeAll(session, sentences, tagIds);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        threads.getThreadAllocatedBytes(thread);
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int round = 0; round < ROUNDS; round++) {
+            decodeAll(session, sentences, tagIds);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        assertEquals(0, allocated, "bytes allocated over " + ROUNDS * sentences.length + " sentences");
+    }
+
+    private static void decodeAll(DecoderSession session, String[][] sentences, int[] tagIds) {
+        for (String[] sentence: sentences) {
+            session.decode(sentence, sentence.length, tagIds);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * DecoderSession.decode must find a best path of POSTagger.viterbi, sentence by sentence. The two only break exact
+ * ties differently (lowest tag id against HashMap order), so where their tags differ both paths must score the same
+ */
+public class DecoderSessionTest {
+    private static final int SENTENCES = 500;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void decodeMatchesViterbi() throws IOException {
+        assertSameBestPaths(new SyntheticCorpus(12, 40, 7, 7), new SyntheticCorpus(12, 40, 7, 8), 500);
+    }
+
+    /**
+     * Trained on few sentences, so most test words are unknown and many paths score exactly the same
+     */
+    @Test
+    public void decodeMatchesViterbiWithTies() throws IOException {
+        assertSameBestPaths(new SyntheticCorpus(20, 400, 5, 5), new SyntheticCorpus(20, 400, 5, 6), 300);
+    }
+
+    private void assertSameBestPaths(SyntheticCorpus train, SyntheticCorpus test, int trainSentences)
+            throws IOException {
+        String tagsFileName = dir.resolve("tags.txt").toString();
+        String sentencesFileName = dir.resolve("sentences.txt").toString();
+        train.write(tagsFileName, sentencesFileName, trainSentences, 40);
+        POSTagger tagger = new POSTagger(tagsFileName, sentencesFileName);
+        CompiledModel model = tagger.compile();
+        DecoderSession session = new DecoderSession(model);
+
+        Random lengths = new Random(1);
+        int identical = 0;
+        for (int s = 0; s < SENTENCES; s++) {
+            String sentence = test.sentence(1 + lengths.nextInt(40))[1];
+            String[] words = Tokenizer.lowerTokens(sentence);
+            String[] tags = new String[words.length];
+            session.decode(words, words.length, tags);
+            List<String> expected = tagger.viterbi(sentence);
+            if (expected.equals(Arrays.asList(tags))) {
+                identical++;
+                continue;
+            }
+            double expectedScore = score(model, words, expected.toArray(new String[0]));
+            assertEquals(expectedScore, score(model, words, tags), Math.abs(expectedScore) * 1e-12,
+                    "sentence " + s + ": " + sentence);
+        }
+        assertTrue(identical > 0, "no sentence tagged identically");
+    }
+
+    /**
+     * @return - log probability of the tag path: transitions from # plus emissions, the unseen score where a word
+     * was never observed with its tag
+     */
+    private static double score(CompiledModel model, String[] words, String[] tags) {
+        double score = 0;
+        int prev = model.startTag();
+        for (int i = 0; i < words.length; i++) {
+            int tag = model.tagId(tags[i]);
+            double observationScore = model.getUnseenScore();
+            int wordId = model.wordId(words[i]);
+            if (wordId != -1) {
+                for (int e = model.emissionStart(wordId); e < model.emissionEnd(wordId); e++) {
+                    if (model.emissionTag(e) == tag) observationScore = model.emissionScore(e);
+                }
+            }
+            score += model.transitions()[prev][tag] + observationScore;
+            prev = tag;
+        }
+        return score;
+    }
+}
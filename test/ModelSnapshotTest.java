@@ -0,0 +1,64 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A tagger loaded from a saved snapshot must tag and count exactly like the tagger that saved it
+ */
+public class ModelSnapshotTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void saveThenLoadGivesSameTags() throws IOException {
+        String[] train = files("train");
+        String[] test = files("test");
+        new SyntheticCorpus(12, 40, 7, 7).write(train[0], train[1], 500, 40);
+        new SyntheticCorpus(12, 40, 7, 8).write(test[0], test[1], 200, 40);
+        POSTagger trained = new POSTagger(train[0], train[1]);
+        String snapshot = dir.resolve("model.snap").toString();
+        assertTrue(trained.save(snapshot));
+        POSTagger loaded = new POSTagger(snapshot);
+
+        SyntheticCorpus sentences = new SyntheticCorpus(12, 40, 7, 9);
+        Random lengths = new Random(1);
+        for (int s = 0; s < 200; s++) {
+            String sentence = sentences.sentence(1 + lengths.nextInt(40))[1];
+            assertEquals(trained.viterbi(sentence), loaded.viterbi(sentence), "sentence " + s + ": " + sentence);
+        }
+        assertEquals(trained.testModel(test[0], test[1]), loaded.testModel(test[0], test[1]));
+    }
+
+    /**
+     * B is only ever seen last, so nothing can follow it: the snapshot-backed tagger leaves the sentence's positions
+     * null, and testModel must count them as wrong instead of failing
+     */
+    @Test
+    public void testModelCountsUnreachableTagsAsWrong() throws IOException {
+        String[] train = files("train");
+        String[] test = files("test");
+        Files.write(Path.of(train[0]), Arrays.asList("A B", "A B"));
+        Files.write(Path.of(train[1]), Arrays.asList("x y", "x y"));
+        Files.write(Path.of(test[0]), Arrays.asList("A B", "A B A"));
+        Files.write(Path.of(test[1]), Arrays.asList("x y", "x y x"));
+        String snapshot = dir.resolve("model.snap").toString();
+        assertTrue(new POSTagger(train[0], train[1]).save(snapshot));
+
+        assertEquals(Arrays.asList(2, 3), new POSTagger(snapshot).testModel(test[0], test[1]));
+    }
+
+    /**
+     * @return - {tagsFileName, sentencesFileName} in the temporary directory
+     */
+    private String[] files(String name) {
+        return new String[]{dir.resolve(name + "-tags.txt").toString(), dir.resolve(name + "-sentences.txt").toString()};
+    }
+}
@@ -0,0 +1,118 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SentenceCache must hold at most its caps whatever they are, never serve or store entries of another model version,
+ * and count every lookup as exactly one hit or miss
+ */
+public class SentenceCacheTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void neverHoldsMoreThanMaxEntries() {
+        for (int maxEntries: new int[]{1, 2, 3, 5, 15, 16, 17, 40, 100}) {
+            SentenceCache<String> cache = new SentenceCache<>(maxEntries, Long.MAX_VALUE);
+            for (int i = 0; i < 20 * maxEntries; i++) {
+                String key = "sentence " + i;
+                //ask twice, so the newcomer is requested more often than the victims TinyLFU weighs it against
+                cache.get(key, 0);
+                cache.get(key, 0);
+                cache.put(key, "tags", 8, 0);
+                assertTrue(cache.size() <= maxEntries, "size " + cache.size() + " over cap " + maxEntries);
+            }
+            assertTrue(cache.size() > 0, "cap " + maxEntries + " holds nothing");
+        }
+    }
+
+    @Test
+    public void neverHoldsMoreThanMaxBytes() {
+        SentenceCache<String> cache = new SentenceCache<>(1000, 5000);
+        for (int i = 0; i < 1000; i++) {
+            String key = "sentence " + i;
+            cache.get(key, 0);
+            cache.get(key, 0);
+            cache.put(key, "tags", 100, 0);
+            assertTrue(cache.bytes() <= 5000, "bytes " + cache.bytes() + " over cap 5000");
+        }
+    }
+
+    @Test
+    public void singleEntryCacheKeepsTheLatest() {
+        SentenceCache<String> cache = new SentenceCache<>(1, Long.MAX_VALUE);
+        cache.get("a", 0);
+        cache.put("a", "A", 8, 0);
+        cache.get("b", 0);
+        cache.get("b", 0);
+        cache.put("b", "B", 8, 0);
+        assertEquals(1, cache.size());
+        assertEquals("B", cache.get("b", 0));
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        SentenceCache<String> cache = new SentenceCache<>(10, Long.MAX_VALUE);
+        assertEquals(0, cache.getHitRate());
+        assertNull(cache.get("a", 0));
+        cache.put("a", "A", 8, 0);
+        assertEquals("A", cache.get("a", 0));
+        assertEquals("A", cache.get("a", 0));
+        assertNull(cache.get("b", 0));
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate());
+    }
+
+    @Test
+    public void invalidateDropsOlderVersions() {
+        SentenceCache<String> cache = new SentenceCache<>(10, Long.MAX_VALUE);
+        cache.put("a", "A", 8, 0);
+        cache.invalidate(1);
+        assertEquals(0, cache.size());
+        assertNull(cache.get("a", 1));
+        //a result decoded with the old model arrives late
+        cache.put("a", "A", 8, 0);
+        assertNull(cache.get("a", 1));
+        cache.put("a", "A1", 8, 1);
+        assertEquals("A1", cache.get("a", 1));
+        assertNull(cache.get("a", 0));
+    }
+
+    /**
+     * After update the cached tagger must decode with the new counts, exactly like a tagger without a cache
+     */
+    @Test
+    public void updateInvalidatesCachedTags() throws IOException {
+        Path tags = dir.resolve("tags.txt");
+        Path sentences = dir.resolve("sentences.txt");
+        Files.write(tags, Arrays.asList("N V", "N V", "V N"));
+        Files.write(sentences, Arrays.asList("fish swim", "fish swim", "swim fish"));
+        POSTagger cached = new POSTagger(tags.toString(), sentences.toString());
+        POSTagger uncached = new POSTagger(tags.toString(), sentences.toString());
+        cached.enableCache(100, 1 << 20);
+
+        List<String> before = cached.viterbi("fish swim");
+        assertEquals(before, cached.viterbi("fish swim"));
+        assertTrue(cached.cacheStats().contains("sentence_hits 1\n"), cached.cacheStats());
+        long version = cached.getModelVersion();
+
+        for (int i = 0; i < 5; i++) {
+            cached.update("V N", "fish swim");
+            uncached.update("V N", "fish swim");
+        }
+        List<String> after = cached.viterbi("fish swim");
+        assertTrue(cached.getModelVersion() > version);
+        assertNotEquals(before, after);
+        assertEquals(uncached.viterbi("fish swim"), after);
+        //the lookup after the update missed instead of returning the old tags
+        assertTrue(cached.cacheStats().contains("sentence_hits 1\nsentence_misses 2\n"), cached.cacheStats());
+    }
+}